@@ -0,0 +1,80 @@
+package client;
+
+import common.WAMEncoder;
+import common.WhackException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost per message of the client loop {@link WAMNetworkClient#run()}: a
+ * recorded game is read from memory, decoded and applied to the model.
+ *
+ * @author Daniel Cho
+ * @author Juan Patino
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class WAMClientBenchmark {
+
+    /** messages of the recorded game after the WELCOME */
+    private static final int MESSAGES = 3000;
+    private static final int ROWS = 5;
+    private static final int COLS = 5;
+    private static final int PLAYERS = 2;
+
+    @Param({"false", "true"})
+    boolean binary;
+
+    private byte[] recorded;
+
+    @Setup
+    public void setUp() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(out, WAMEncoder.local(false).welcome(ROWS, COLS, PLAYERS, 0));
+        if (binary) {
+            write(out, WAMEncoder.local(false).binaryRequest());
+        }
+        WAMEncoder encoder = WAMEncoder.local(binary);
+        int[] scores = new int[PLAYERS];
+        for (int i = 0; i < MESSAGES / 3; i++) {
+            int mole = i % (ROWS * COLS);
+            write(out, encoder.moleUp(mole));
+            write(out, encoder.moleDown(mole));
+            scores[i % PLAYERS] += 2;
+            write(out, encoder.score(scores, PLAYERS));
+        }
+        recorded = out.toByteArray();
+    }
+
+    /**
+     * @param out where to write
+     * @param frame the message
+     */
+    private static void write(ByteArrayOutputStream out, ByteBuffer frame) {
+        out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public Model run() throws WhackException {
+        Model model = new Model();
+        WAMNetworkClient client = new WAMNetworkClient(new ByteArrayInputStream(recorded),
+                OutputStream.nullOutputStream(), model);
+        client.run();
+        return model;
+    }
+}
@@ -0,0 +1,105 @@
+package server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the decisions the game thread makes: picking the hole of a mole,
+ * judging a whack, and ranking the players at the end of a game.
+ *
+ * @author Daniel Cho
+ * @author Juan Patino
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class WAMGameBenchmark {
+
+    /** rows and columns of the board */
+    @Param({"5", "32"})
+    int size;
+
+    @Param({"2", "16"})
+    int players;
+
+    private WAMScheduler scheduler;
+    private ArrayList<WAMPlayer> list;
+    private WAMScores scores;
+    private WAMGame game;
+    private WAMBoard board;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        scheduler = new WAMScheduler(1);
+        scores = new WAMScores(players);
+        list = new ArrayList<>(players);
+        for (int i = 0; i < players; i++) {
+            WAMPlayer player = new WAMPlayer(new WAMNullConnection());
+            player.connect(scores, size, size, players, i);
+            list.add(player);
+            scores.add(i, (i * 7919) % 31 - 15);
+        }
+        WAMGame.Settings settings = new WAMGame.Settings();
+        settings.moles = Math.max(1, size * size / 8);
+        settings.clock = scheduler;
+        game = new WAMGame(list, scores, size, size, 60, settings);
+        board = game.getBoard();
+    }
+
+    @TearDown
+    public void tearDown() {
+        scheduler.close();
+    }
+
+    @Benchmark
+    public int randomNum() {
+        return game.random_num();
+    }
+
+    @Benchmark
+    public int pickHole() {
+        return board.nextDown(game.random_num());
+    }
+
+    /**
+     * A mole comes up, one player whacks it, and it goes down again. The
+     * player is flushed like at the end of a tick, so its queue never fills.
+     * @return the mole
+     */
+    @Benchmark
+    public int judge() {
+        int mole = next;
+        next = (next + 1) % board.size();
+        long now = System.nanoTime();
+        WAMPlayer player = list.get(mole % players);
+        board.up(mole, now);
+        game.judge(player, mole, now);
+        board.down(mole, now);
+        player.flush();
+        return mole;
+    }
+
+    @Benchmark
+    public WAMRanking ranking() {
+        return new WAMRanking(scores.snapshot());
+    }
+
+    @Benchmark
+    public void gameResult() {
+        game.game_result();
+        for (int i = 0; i < players; i++) {
+            list.get(i).flush();
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package server;
+
+import common.WAMDecoder;
+import common.WAMEncoder;
+import common.WhackException;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Compares the ways a {@link WAMServer} can run its connections. For every
+ * mode a server is started in this JVM and filled with one-player games;
+ * then the memory and threads each connection costs are measured, and so
+ * is the time from a whack to the mole going down. The clients share a
+ * single selector thread, so they cost the same in every mode. What the
+ * servers print goes to the output too, ahead of the results of each mode.
+ *
+ * @author Daniel Cho
+ * @author Juan Patino
+ */
+public class WAMLoadTest {
+
+    /** rows of the board, with the columns one mole per game */
+    private static final int ROWS = 2;
+    /** columns of the board */
+    private static final int COLS = 4;
+    /** length of the games, longer than the test */
+    private static final int GAME_TIME = 600;
+    /** longest wait for all clients to be welcomed */
+    private static final long CONNECT_TIMEOUT = 60_000;
+    /**
+     * One test client; it whacks every mole that comes up.
+     */
+    private static class Bot implements WAMDecoder.Handler {
+        final SocketChannel channel;
+        final WAMDecoder decoder = new WAMDecoder(this);
+        final ByteBuffer in = ByteBuffer.allocate(1024);
+        final List<Long> latencies;
+        int player_number = -1;
+        int whacked = -1;
+        long whackTime;
+
+        Bot(SocketChannel channel, List<Long> latencies) {
+            this.channel = channel;
+            this.latencies = latencies;
+        }
+
+        @Override
+        public void onWelcome(int rows, int cols, int players, int player_number) {
+            this.player_number = player_number;
+        }
+
+        @Override
+        public void onMoleUp(int mole) {
+            whacked = mole;
+            whackTime = System.nanoTime();
+            if (!send(WAMEncoder.local().whack(mole, player_number))) {
+                whacked = -1;
+            }
+        }
+
+        @Override
+        public void onPing(int id) {
+            send(WAMEncoder.local().pong(id));
+        }
+
+        /**
+         * Write a message, waiting for the channel to take all of it.
+         * @param frame the message
+         * @return false if writing failed
+         */
+        boolean send(ByteBuffer frame) {
+            try {
+                while (frame.hasRemaining()) {
+                    channel.write(frame);
+                }
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public void onMoleDown(int mole) {
+            if (mole == whacked) {
+                latencies.add(System.nanoTime() - whackTime);
+                whacked = -1;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: connections  [seconds  [mode...]]");
+            System.exit(1);
+        }
+        int connections = Integer.parseInt(args[0]);
+        int seconds = args.length >= 2 ? Integer.parseInt(args[1]) : 20;
+        List<WAMServer.Mode> modes = new ArrayList<>();
+        for (int i = 2; i < args.length; i++) {
+            modes.add(WAMServer.Mode.valueOf(args[i].toUpperCase()));
+        }
+        if (modes.isEmpty()) {
+            modes.addAll(Arrays.asList(WAMServer.Mode.PLATFORM, WAMServer.Mode.VIRTUAL));
+        }
+        for (WAMServer.Mode mode : modes) {
+            run(mode, connections, seconds);
+        }
+    }
+
+    /**
+     * Load one server and print what was measured.
+     * @param mode the mode of the server
+     * @param connections number of clients
+     * @param seconds how long to measure the latency
+     * @throws WhackException if the server cannot start
+     * @throws IOException if the clients cannot connect
+     * @throws InterruptedException if interrupted
+     */
+    private static void run(WAMServer.Mode mode, int connections, int seconds)
+            throws WhackException, IOException, InterruptedException {
+        long rss0 = residentBytes();
+        long heap0 = usedHeap();
+        int threads0 = ManagementFactory.getThreadMXBean().getThreadCount();
+
+        WAMServer server = new WAMServer(0, mode, ROWS, COLS, 1, GAME_TIME, connections, 0);
+        Thread serverThread = new Thread(server, "WAMServer");
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        List<Long> latencies = new ArrayList<>();
+        List<Bot> bots = new ArrayList<>(connections);
+        Selector selector = Selector.open();
+        long start = System.nanoTime();
+        InetSocketAddress address = new InetSocketAddress("localhost", server.getPort());
+        for (int i = 0; i < connections; i++) {
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            boolean connected = channel.connect(address);
+            Bot bot = new Bot(channel, latencies);
+            bots.add(bot);
+            channel.register(selector, connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, bot);
+        }
+        int welcomed = 0;
+        while (welcomed < connections && System.nanoTime() - start < CONNECT_TIMEOUT * 1_000_000) {
+            poll(selector, 100);
+            welcomed = 0;
+            for (Bot bot : bots) {
+                if (bot.player_number >= 0) welcomed++;
+            }
+        }
+        long connectMillis = (System.nanoTime() - start) / 1_000_000;
+
+        long rss1 = residentBytes();
+        long heap1 = usedHeap();
+        int threads1 = ManagementFactory.getThreadMXBean().getThreadCount();
+        latencies.clear();
+
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        while (System.nanoTime() < end) {
+            poll(selector, 100);
+        }
+
+        for (Bot bot : bots) {
+            bot.channel.close();
+        }
+        selector.close();
+        server.close();
+        serverThread.join(5000);
+        //let the threads of the server die before the next mode is measured.
+        Thread.sleep(1000);
+
+        System.out.println("mode " + server.getMode() + ": " + welcomed + "/" + connections
+                + " connections in " + connectMillis + " ms");
+        System.out.println("  threads        " + (threads1 - threads0));
+        if (rss0 > 0) {
+            System.out.println("  resident/conn  " + (rss1 - rss0) / Math.max(1, welcomed) + " bytes");
+        }
+        System.out.println("  heap/conn      " + (heap1 - heap0) / Math.max(1, welcomed) + " bytes");
+        long[] sorted = new long[latencies.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = latencies.get(i);
+        }
+        Arrays.sort(sorted);
+        if (sorted.length > 0) {
+            System.out.println("  whack latency  " + sorted.length + " samples, p50 " + micros(sorted, 0.50)
+                    + " us, p99 " + micros(sorted, 0.99) + " us, max " + sorted[sorted.length - 1] / 1000 + " us");
+        } else {
+            System.out.println("  whack latency  no samples");
+        }
+    }
+
+    /**
+     * Serve the ready clients once.
+     * @param selector the selector of the clients
+     * @param timeout longest wait in milliseconds
+     * @throws IOException if selecting fails
+     */
+    private static void poll(Selector selector, long timeout) throws IOException {
+        selector.select(timeout);
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            Bot bot = (Bot) key.attachment();
+            try {
+                if (key.isConnectable()) {
+                    if (bot.channel.finishConnect()) key.interestOps(SelectionKey.OP_READ);
+                } else if (key.isReadable()) {
+                    if (bot.channel.read(bot.in) < 0) {
+                        key.cancel();
+                        continue;
+                    }
+                    bot.in.flip();
+                    bot.decoder.decode(bot.in);
+                    bot.in.compact();
+                }
+            } catch (IOException e) {
+                key.cancel();
+            }
+        }
+    }
+
+    /**
+     * @param sorted sorted latencies in nanoseconds
+     * @param quantile the quantile wanted
+     * @return the latency at the quantile in microseconds
+     */
+    private static long micros(long[] sorted, double quantile) {
+        return sorted[(int) Math.min(sorted.length - 1, sorted.length * quantile)] / 1000;
+    }
+
+    /**
+     * @return bytes of heap in use after a collection
+     */
+    private static long usedHeap() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * The resident size counts the stacks of platform threads too, which
+     * live outside the heap.
+     * @return resident bytes of this process, or -1 where unknown
+     */
+    private static long residentBytes() {
+        Path status = Paths.get("/proc/self/status");
+        try {
+            for (String line : Files.readAllLines(status)) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // not on Linux
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,118 @@
+package server;
+
+import common.WAMDecoder;
+import common.WAMEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trip of a WHACK over a loopback socket: the client encodes it, a
+ * server {@link WAMConnection} decodes it and answers MOLE_DOWN, and the
+ * client decodes the answer. Measures the codec together with the socket
+ * path of this machine.
+ *
+ * @author Daniel Cho
+ * @author Juan Patino
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WAMLoopbackBenchmark {
+
+    @Param({"false", "true"})
+    boolean binary;
+
+    private ServerSocketChannel server;
+    private SocketChannel client;
+    private WAMBlockingConnection connection;
+    private WAMDecoder decoder;
+    private final ByteBuffer in = ByteBuffer.allocate(1024);
+    private int answer;
+    private int next;
+
+    /**
+     * The server end: answers every whack by taking the mole down.
+     */
+    private class Echo implements WAMConnection.Listener {
+        @Override
+        public void onWhack(int mole, int player_number) {
+            connection.send(WAMEncoder.local(binary).moleDown(mole));
+        }
+
+        @Override
+        public void onClose(WAMConnection connection) {
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        client = SocketChannel.open(server.getLocalAddress());
+        client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        SocketChannel accepted = server.accept();
+        accepted.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        connection = new WAMBlockingConnection(accepted, new WAMMetrics(), task -> {
+            Thread writer = new Thread(task, "WAMLoopbackWriter");
+            writer.setDaemon(true);
+            return writer;
+        });
+        connection.setListener(new Echo());
+        connection.setBinary(binary);
+        Thread reader = new Thread(connection, "WAMLoopback");
+        reader.setDaemon(true);
+        reader.start();
+        decoder = new WAMDecoder(new WAMDecoder.Handler() {
+            @Override
+            public void onMoleDown(int mole) {
+                answer = mole;
+            }
+        });
+        decoder.setBinary(binary);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        client.close();
+        connection.close();
+        server.close();
+    }
+
+    @Benchmark
+    public int whackRoundTrip() throws IOException {
+        int mole = next;
+        next = (next + 1) & 15;
+        answer = -1;
+        ByteBuffer frame = WAMEncoder.local(binary).whack(mole, 0);
+        while (frame.hasRemaining()) {
+            client.write(frame);
+        }
+        while (true) {
+            in.flip();
+            boolean decoded = decoder.decodeOne(in);
+            in.compact();
+            if (decoded) {
+                if (answer == mole) return answer;
+            } else if (client.read(in) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+}
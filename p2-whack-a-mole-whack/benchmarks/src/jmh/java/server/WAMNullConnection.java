@@ -0,0 +1,29 @@
+package server;
+
+/**
+ * A connection without a socket for the benchmarks. What is written is
+ * queued like on any connection, and dropped on the flush.
+ *
+ * @author Daniel Cho
+ * @author Juan Patino
+ */
+class WAMNullConnection extends WAMConnection {
+
+    /** number of bytes sent */
+    long bytes;
+
+    @Override
+    public synchronized void flush() {
+        bytes += out.position();
+        metrics.written(out.position());
+        out.clear();
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    void disconnect() {
+    }
+}
@@ -0,0 +1,50 @@
+package server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of playing a whole logged game again with a {@link WAMReplay}: the
+ * game logic of a minute of play, without the waiting.
+ *
+ * @author Daniel Cho
+ * @author Juan Patino
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WAMReplayBenchmark {
+
+    @Param({"2", "16"})
+    int players;
+
+    /** moles up at the same time on the 10x10 board */
+    @Param({"1", "25"})
+    int moles;
+
+    private WAMReplay replay;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] log = WAMSimulation.play(42, 10, 10, players, 60, moles);
+        replay = new WAMReplay(ByteBuffer.wrap(log));
+        if (!replay.replay().matches()) {
+            throw new IllegalStateException("the replay does not match the log");
+        }
+    }
+
+    @Benchmark
+    public WAMReplay.Result replay() throws IOException {
+        return replay.replay();
+    }
+}
@@ -0,0 +1,72 @@
+package server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Checks that games replay exactly. Each game is played twice from its
+ * seed on a {@link WAMSimulation}, which must log the same bytes both
+ * times, and then played back by a {@link WAMReplay}, whose log must match
+ * the recorded one byte for byte. Exits with 1 if any game does not.
+ *
+ * @author Daniel Cho
+ * @author Juan Patino
+ */
+public class WAMReplayCheck {
+
+    /** rows, columns, players, seconds and moles of the games checked */
+    private static final int[][] GAMES = {
+            {2, 2, 1, 30, 1},
+            {3, 3, 2, 60, 3},
+            {5, 5, 8, 60, 6},
+            {10, 10, 16, 30, 25},
+    };
+
+    /** seeds every game is checked with */
+    private static final long[] SEEDS = {0, 1, 42, -7_046_029_254_386_353_131L};
+
+    public static void main(String[] args) {
+        int failed = 0;
+        for (int[] g : GAMES) {
+            for (long seed : SEEDS) {
+                String name = g[0] + "x" + g[1] + ", " + g[2] + " players, " + g[4] + " moles, seed " + seed;
+                try {
+                    String problem = check(seed, g[0], g[1], g[2], g[3], g[4]);
+                    if (problem != null) {
+                        System.out.println(name + ": " + problem);
+                        failed++;
+                    }
+                } catch (IOException | RuntimeException e) {
+                    System.out.println(name + ": " + e);
+                    failed++;
+                }
+            }
+        }
+        int games = GAMES.length * SEEDS.length;
+        System.out.println((games - failed) + "/" + games + " games replayed exactly");
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    /**
+     * Record a game and replay it.
+     * @return what went wrong, null if nothing did
+     * @throws IOException if the replay cannot read the log
+     */
+    private static String check(long seed, int rows, int cols, int players, int game_time, int moles)
+            throws IOException {
+        byte[] log = WAMSimulation.play(seed, rows, cols, players, game_time, moles);
+        if (!Arrays.equals(log, WAMSimulation.play(seed, rows, cols, players, game_time, moles))) {
+            return "the same seed logged another game";
+        }
+        WAMReplay replay = new WAMReplay(ByteBuffer.wrap(log));
+        if (replay.getSeed() != seed) {
+            return "logged seed " + replay.getSeed();
+        }
+        WAMReplay.Result result = replay.replay();
+        if (!result.matches()) {
+            return "the replay differs at byte " + result.getDiffers() + " of " + log.length;
+        }
+        return null;
+    }
+}
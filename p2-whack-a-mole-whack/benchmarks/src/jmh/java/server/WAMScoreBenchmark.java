@@ -0,0 +1,92 @@
+package server;
+
+import common.WAMEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of getting the scores out: encoding a SCORE message, handing it to
+ * one {@link WAMPlayer}, and the whole broadcast of a tick.
+ *
+ * @author Daniel Cho
+ * @author Juan Patino
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class WAMScoreBenchmark {
+
+    @Param({"2", "8"})
+    int players;
+
+    @Param({"false", "true"})
+    boolean binary;
+
+    private ArrayList<WAMPlayer> list;
+    private WAMScores scores;
+    private WAMScoreBroadcaster broadcaster;
+    private int[] snapshot;
+    private ByteBuffer text;
+    private ByteBuffer frame;
+
+    @Setup
+    public void setUp() {
+        scores = new WAMScores(players);
+        list = new ArrayList<>(players);
+        for (int i = 0; i < players; i++) {
+            WAMPlayer player = new WAMPlayer(new WAMNullConnection());
+            player.connect(scores, 5, 5, players, i);
+            if (binary) player.onBinary();
+            list.add(player);
+            scores.add(i, 10 * i - 7);
+        }
+        broadcaster = new WAMScoreBroadcaster(list, scores, 0);
+        snapshot = scores.snapshot();
+        text = copy(WAMEncoder.local(false).score(snapshot, players));
+        frame = copy(WAMEncoder.local(true).score(snapshot, players));
+    }
+
+    /**
+     * @param frame an encoded message
+     * @return a copy that later encodings do not overwrite
+     */
+    private static ByteBuffer copy(ByteBuffer frame) {
+        ByteBuffer copy = ByteBuffer.allocate(frame.remaining());
+        copy.put(frame.duplicate());
+        copy.flip();
+        return copy;
+    }
+
+    @Benchmark
+    public ByteBuffer encodeScore() {
+        return WAMEncoder.local(binary).score(snapshot, players);
+    }
+
+    @Benchmark
+    public void sendScore() {
+        WAMPlayer player = list.get(0);
+        player.sendScore(text, frame);
+        player.flush();
+    }
+
+    @Benchmark
+    public long broadcast() {
+        scores.add(0, 1);
+        broadcaster.markDirty();
+        broadcaster.flushNow(System.nanoTime());
+        for (WAMPlayer player : list) {
+            player.flush();
+        }
+        return broadcaster.getBroadcasts();
+    }
+}
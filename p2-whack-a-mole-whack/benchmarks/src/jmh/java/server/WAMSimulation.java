@@ -0,0 +1,131 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plays a whole game without a network or a running clock and returns its
+ * {@link WAMGameLog}. The clock jumps from one timer to the next, and the
+ * players whack holes picked by a random generator seeded like the game,
+ * so the same seed always plays, and logs, the same game.
+ *
+ * @author Daniel Cho
+ * @author Juan Patino
+ */
+class WAMSimulation implements WAMClock {
+
+    /** nano time the game starts at */
+    private static final long START = TimeUnit.SECONDS.toNanos(1);
+
+    /** timers and whacks that are not due yet, earliest first */
+    private final PriorityQueue<Timer> pending = new PriorityQueue<>();
+    /** the time */
+    private long now = START;
+    /** number of timers set, to keep timers due at the same time in order */
+    private long count;
+
+    /**
+     * Play a game.
+     * @param seed seed of the game and of the players
+     * @param rows number of rows
+     * @param cols number of columns
+     * @param players number of players
+     * @param game_time length of the game in seconds
+     * @param moles number of moles that may be up at the same time
+     * @return the log of the game
+     */
+    static byte[] play(long seed, int rows, int cols, int players, int game_time, int moles) {
+        return new WAMSimulation().run(seed, rows, cols, players, game_time, moles);
+    }
+
+    private byte[] run(long seed, int rows, int cols, int players, int game_time, int moles) {
+        WAMMetrics metrics = new WAMMetrics();
+        WAMScores scores = new WAMScores(players);
+        ArrayList<WAMPlayer> playerList = new ArrayList<>(players);
+        for (int i = 0; i < players; i++) {
+            WAMPlayer player = new WAMPlayer(new WAMNullConnection());
+            player.connect(scores, rows, cols, players, i);
+            playerList.add(player);
+        }
+        WAMGame.Settings settings = new WAMGame.Settings();
+        settings.moles = moles;
+        settings.seed = seed;
+        settings.clock = this;
+        settings.metrics = metrics;
+        WAMGame game = new WAMGame(playerList, scores, rows, cols, game_time, settings);
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        game.setLog(new WAMGameLog(Channels.newChannel(log), Runnable::run));
+
+        //the players get their own generator, so their whacks do not move the moles.
+        SplittableRandom random = new SplittableRandom(~seed);
+        game.begin();
+        boolean go = true;
+        while (go && !pending.isEmpty()) {
+            Timer timer = pending.poll();
+            if (timer.isCancelled()) continue;
+            now = timer.event.deadline;
+            go = game.handle(timer.event);
+            if (timer.event.type == MoleEvent.Type.UP) {
+                //some players react to the mole, at a hole they may miss.
+                for (int i = 0; i < players; i++) {
+                    if (random.nextBoolean()) {
+                        long received = now + TimeUnit.MILLISECONDS.toNanos(150 + random.nextInt(750));
+                        long rtt = TimeUnit.MILLISECONDS.toNanos(random.nextInt(80));
+                        add(new MoleEvent(MoleEvent.Type.WHACK, random.nextInt(rows * cols), received,
+                                playerList.get(i), rtt));
+                    }
+                }
+            }
+            game.endTick();
+        }
+        game.finish();
+        return log.toByteArray();
+    }
+
+    @Override
+    public long nanoTime() {
+        return now;
+    }
+
+    @Override
+    public Future<?> schedule(MoleEvent event, long nanos, WAMGame game) {
+        return add(event);
+    }
+
+    /**
+     * @param event an event to hand to the game once it is due
+     * @return its timer
+     */
+    private Timer add(MoleEvent event) {
+        Timer timer = new Timer(event, count++);
+        pending.add(timer);
+        return timer;
+    }
+
+    /**
+     * A timer of the simulated clock.
+     */
+    private static class Timer extends CompletableFuture<Void> implements Comparable<Timer> {
+        final MoleEvent event;
+        /** the order the timer was set in */
+        final long order;
+
+        Timer(MoleEvent event, long order) {
+            this.event = event;
+            this.order = order;
+        }
+
+        @Override
+        public int compareTo(Timer other) {
+            long diff = event.deadline - other.event.deadline;
+            if (diff != 0) return diff < 0 ? -1 : 1;
+            return Long.compare(order, other.order);
+        }
+    }
+}
@@ -1,11 +1,20 @@
 package client;
 
-import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Collection;
 import java.util.List;
-import java.util.LinkedList;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
- * The model for the Whack-A-Mole game.
+ * The model for the Whack-A-Mole game. The scores are kept in a primitive
+ * array sized once from the WELCOME and updated in place, so a long
+ * session uses the same memory throughout.
+ * <br>
+ * Every change is also queued as a {@link ModelEvent}. An observer is
+ * told when the queue stops being empty, and then drains every change
+ * queued so far with {@link #drainTo(Collection)}; it is told again once
+ * a change comes after that. Nothing is lost however many changes arrive
+ * before the observer runs, and it only does the work each change needs.
  *
  * @author Daniel Cho
  * @author Juan Patino
@@ -22,29 +31,21 @@ public class Model {
 
     /** current game status */
     private Status status;
-    /** total score */
-    private ArrayList<Integer> tot_score;
+    /** the error message, null if there was no error */
+    private String message;
+    /** score of every player, sized from the WELCOME */
+    private int[] tot_score = new int[0];
+    /** changes the observers have not drained yet, only queued while there are observers */
+    private ArrayDeque<ModelEvent> events = new ArrayDeque<>();
 
     /** Possible statuses of game */
     public enum Status {
-        WELCOME, SCORE, MOLE_UP, MOLE_DOWN, GAME_WON, GAME_LOST, GAME_TIED, ERROR;
-
-        private String message = null;
-
-        public void setMessage( String msg ) {
-            this.message = msg;
-        }
-
-        @Override
-        public String toString() {
-            return super.toString() +
-                    this.message == null ? "" : ( '(' + this.message + ')' );
-        }
+        WELCOME, SCORE, MOLE_UP, MOLE_DOWN, GAME_WON, GAME_LOST, GAME_TIED, ERROR
     }
 
     public Model(){
 
-        this.observers = new LinkedList<>();
+        this.observers = new CopyOnWriteArrayList<>();
 
     }
 
@@ -63,17 +64,59 @@ public class Model {
             obs.update(this);
         }
     }
+
+    /**
+     * Queue a change, called with the lock held.
+     * @param event the change
+     * @return true if the observers have to be told
+     */
+    private boolean queue(ModelEvent event) {
+        if (observers.isEmpty()) return false;
+        boolean first = events.isEmpty();
+        events.add(event);
+        return first;
+    }
+
+    /**
+     * Move every change queued so far to a collection, oldest first. An
+     * observer calls this once it is told of changes; it is told again
+     * once a change comes after this.
+     * @param into where the changes go
+     * @return number of changes moved
+     */
+    public synchronized int drainTo(Collection<? super ModelEvent> into) {
+        int n = events.size();
+        into.addAll(events);
+        events.clear();
+        return n;
+    }
+
+    /**
+     * called when the game ends in an error.
+     * @param arguments the error message
+     */
     public void error(String arguments) {
-        this.status = Status.ERROR;
-        this.status.setMessage(arguments);
-        alertObservers();
+        boolean alert;
+        synchronized (this) {
+            this.status = Status.ERROR;
+            this.message = arguments;
+            alert = queue(ModelEvent.error(arguments));
+        }
+        if (alert) alertObservers();
+    }
+
+    /**
+     * @return the error message, null if there was no error
+     */
+    public synchronized String getMessage() {
+        return message;
     }
 
     /**
      * get game status.
      * @return the Status object for the game
      */
-    public Status getStatus() {
+    public synchronized Status getStatus() {
         return this.status;
     }
 
@@ -81,69 +124,105 @@ public class Model {
      * called when the game has been won by this player.
      */
     public void gameWon() {
-        this.status = Status.GAME_WON;
-        alertObservers();
+        setStatus(Status.GAME_WON);
     }
 
     /**
      * called when the game has been won by the other player.
      */
     public void gameLost() {
-        this.status = Status.GAME_LOST;
-        alertObservers();
+        setStatus(Status.GAME_LOST);
     }
 
     /**
      * called when the game has been tied.
      */
     public void gameTied() {
-        this.status = Status.GAME_TIED;
-        alertObservers();
+        setStatus(Status.GAME_TIED);
     }
 
     /**
-     * called when welcoming message is sent by the server.
-     * @param row
-     * @param column
-     * @param players
-     * @param time
+     * @param status the new status
      */
-    public void makeWelcome(int row, int column, int players, int time) {
-        this.status = Status.WELCOME;
-        alertObservers();
+    private void setStatus(Status status) {
+        boolean alert;
+        synchronized (this) {
+            this.status = status;
+            alert = queue(ModelEvent.of(status));
+        }
+        if (alert) alertObservers();
+    }
 
+    /**
+     * called when welcoming message is sent by the server: size the
+     * scores.
+     * @param row rows of the board
+     * @param column columns of the board
+     * @param players number of players
+     * @param player_number number of this player
+     */
+    public void makeWelcome(int row, int column, int players, int player_number) {
+        boolean alert;
+        synchronized (this) {
+            this.status = Status.WELCOME;
+            this.tot_score = new int[players];
+            alert = queue(ModelEvent.of(Status.WELCOME));
+        }
+        if (alert) alertObservers();
     }
 
     /**
-     * called when score message is sent by the server.
+     * called when score message is sent by the server. Scores of players
+     * the WELCOME did not announce are ignored.
+     * @param scores the scores, which may be reused once this returns
+     * @param count number of scores
      */
-    public void makeScore(ArrayList<Integer> score) {
-        this.status = Status.SCORE;
-        this.tot_score = score;
-        alertObservers();
+    public void makeScore(int[] scores, int count) {
+        boolean alert;
+        synchronized (this) {
+            this.status = Status.SCORE;
+            System.arraycopy(scores, 0, tot_score, 0, Math.min(count, tot_score.length));
+            //the scores are only copied if someone will read them.
+            alert = queue(observers.isEmpty() ? null : ModelEvent.scores(tot_score.clone()));
+        }
+        if (alert) alertObservers();
     }
 
     /**
      * get total score.
-     * @return total score
+     * @return a copy of the score of every player
+     */
+    public synchronized int[] getTot_score() {
+        return tot_score.clone();
+    }
+
+    /**
+     * @param player a player number
+     * @return the score of the player, 0 if there is no such player
      */
-    public ArrayList<Integer> getTot_score() { return tot_score; }
+    public synchronized int getScore(int player) {
+        return player >= 0 && player < tot_score.length ? tot_score[player] : 0;
+    }
 
     /**
      * called when moles are up.
      * @param col
      */
     public void makePopup(int col) {
-        this.status = Status.MOLE_UP;
-        this.mole_num = col;
-        alertObservers();
+        boolean alert;
+        synchronized (this) {
+            this.status = Status.MOLE_UP;
+            this.mole_num = col;
+            alert = queue(ModelEvent.moleUp(col));
+        }
+        if (alert) alertObservers();
     }
 
     /**
      * get number of moles
      * @return mole numbers
      */
-    public int getMole_num() {
+    public synchronized int getMole_num() {
         return mole_num;
     }
 
@@ -152,9 +231,13 @@ public class Model {
      * @param col
      */
     public void makePopdown(int col) {
-        this.status = Status.MOLE_DOWN;
-        this.mole_num = col;
-        alertObservers();
+        boolean alert;
+        synchronized (this) {
+            this.status = Status.MOLE_DOWN;
+            this.mole_num = col;
+            alert = queue(ModelEvent.moleDown(col));
+        }
+        if (alert) alertObservers();
     }
 
     /**
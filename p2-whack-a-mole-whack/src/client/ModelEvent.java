@@ -0,0 +1,123 @@
+package client;
+
+import java.util.Arrays;
+
+/**
+ * One change of a {@link Model}: a mole popped up or dropped down, the
+ * scores changed, or the game started or ended. The model queues every
+ * change in order and its observers drain the queue, so they see each
+ * change even when several arrive before they get to run.
+ *
+ * @author Daniel Cho
+ * @author Juan Patino
+ */
+public final class ModelEvent {
+
+    /** what happened */
+    private final Model.Status type;
+    /** the mole number, -1 if the event is not about a mole */
+    private final int mole;
+    /** the score of every player, for SCORE events */
+    private final int[] scores;
+    /** the error message, for ERROR events */
+    private final String message;
+
+    /**
+     * Create an event.
+     * @param type what happened
+     * @param mole the mole number, -1 if none
+     * @param scores the scores, null if none; not copied
+     * @param message the error message, null if none
+     */
+    private ModelEvent(Model.Status type, int mole, int[] scores, String message) {
+        this.type = type;
+        this.mole = mole;
+        this.scores = scores;
+        this.message = message;
+    }
+
+    /**
+     * @param mole the mole number
+     * @return the event of a mole popping up
+     */
+    static ModelEvent moleUp(int mole) {
+        return new ModelEvent(Model.Status.MOLE_UP, mole, null, null);
+    }
+
+    /**
+     * @param mole the mole number
+     * @return the event of a mole dropping down
+     */
+    static ModelEvent moleDown(int mole) {
+        return new ModelEvent(Model.Status.MOLE_DOWN, mole, null, null);
+    }
+
+    /**
+     * @param scores the new score of every player, kept by the event
+     * @return the event of the scores changing
+     */
+    static ModelEvent scores(int[] scores) {
+        return new ModelEvent(Model.Status.SCORE, -1, scores, null);
+    }
+
+    /**
+     * @param message what went wrong
+     * @return the event of the game ending in an error
+     */
+    static ModelEvent error(String message) {
+        return new ModelEvent(Model.Status.ERROR, -1, null, message);
+    }
+
+    /**
+     * @param type WELCOME, GAME_WON, GAME_LOST or GAME_TIED
+     * @return the event of the game starting or ending
+     */
+    static ModelEvent of(Model.Status type) {
+        return new ModelEvent(type, -1, null, null);
+    }
+
+    /**
+     * @return what happened
+     */
+    public Model.Status getType() {
+        return type;
+    }
+
+    /**
+     * @return the mole number, -1 if the event is not about a mole
+     */
+    public int getMole() {
+        return mole;
+    }
+
+    /**
+     * @param player a player number
+     * @return the score of the player, 0 if there is no such player or
+     *         this is not a SCORE event
+     */
+    public int getScore(int player) {
+        return scores != null && player >= 0 && player < scores.length ? scores[player] : 0;
+    }
+
+    /**
+     * @return the error message, null if this is not an ERROR event
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        switch (type) {
+            case MOLE_UP:
+            case MOLE_DOWN:
+                return type.name() + '(' + mole + ')';
+            case SCORE:
+                return type.name() + Arrays.toString(scores);
+            case ERROR:
+                return type.name() + '(' + message + ')';
+            default:
+                return type.name();
+        }
+    }
+}
@@ -0,0 +1,538 @@
+package client;
+
+import common.WAMDecoder;
+import common.WAMEncoder;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A headless client that puts load on a Whack-A-Mole server. It opens many
+ * connections, spread over a few selector threads, and plays on all of
+ * them: every mole that comes up is whacked after a reaction time drawn
+ * from a chosen distribution. A finished game is followed by a new
+ * connection, so the load stays the same for the whole run.
+ *
+ * The time from a connect to its WELCOME and from a WHACK to the MOLE_DOWN
+ * it earns are recorded in {@link WAMHistogram}s, and the messages sent
+ * and received are counted for the throughput. Nothing needs a display.
+ * <br>
+ * A MOLE_DOWN does not tell whether it answers a whack or the mole's own
+ * timer ran out, so a whack's time is only recorded once the next SCORE
+ * shows the bot's score went up by as much as if every whack answered
+ * since the last SCORE had scored; otherwise those times are dropped. A
+ * late hit, whose mole dropped while the whack was on its way, changes
+ * the score like a hit does and is counted too.
+ *
+ * @author Daniel Cho
+ * @author Juan Patino
+ */
+public class WAMBot {
+
+    /** longest message the server may send */
+    private static final int MAX_LINE = 64 * 1024;
+    /** room for the whacks a connection could not write yet */
+    private static final int OUT_SIZE = 1024;
+    /** default length of a run in seconds */
+    private static final int SECONDS = 60;
+    /** default reaction time */
+    private static final String REACTION = "uniform:200:800";
+
+    /**
+     * How long a bot waits between seeing a mole and whacking it.
+     */
+    public interface Reaction {
+        /**
+         * @param random the random numbers of the calling thread
+         * @return the next reaction time in nanoseconds
+         */
+        long nanos(SplittableRandom random);
+
+        /**
+         * Read a reaction time distribution, all times in milliseconds:
+         * fixed:T, uniform:MIN:MAX, normal:MEAN:SD or exp:MEAN.
+         * @param spec the distribution
+         * @return the reaction
+         */
+        static Reaction parse(String spec) {
+            String[] parts = spec.split(":");
+            double ms = 1_000_000;
+            try {
+                switch (parts[0]) {
+                    case "fixed": {
+                        long t = (long) (Double.parseDouble(parts[1]) * ms);
+                        return random -> t;
+                    }
+                    case "uniform": {
+                        double low = Double.parseDouble(parts[1]) * ms;
+                        double high = Double.parseDouble(parts[2]) * ms;
+                        return random -> (long) (low + random.nextDouble() * (high - low));
+                    }
+                    case "normal": {
+                        double mean = Double.parseDouble(parts[1]) * ms;
+                        double sd = Double.parseDouble(parts[2]) * ms;
+                        return random -> (long) Math.max(0, mean + sd * gaussian(random));
+                    }
+                    case "exp": {
+                        double mean = Double.parseDouble(parts[1]) * ms;
+                        return random -> (long) (-mean * Math.log(1 - random.nextDouble()));
+                    }
+                    default:
+                }
+            } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                // falls through to the error below
+            }
+            throw new IllegalArgumentException("bad reaction time: " + spec);
+        }
+
+        /**
+         * @param random the random numbers
+         * @return a normally distributed number with mean 0 and deviation 1
+         */
+        static double gaussian(SplittableRandom random) {
+            double u = 1 - random.nextDouble();
+            double v = random.nextDouble();
+            return Math.sqrt(-2 * Math.log(u)) * Math.cos(2 * Math.PI * v);
+        }
+    }
+
+    private final InetSocketAddress address;
+    private final int connections;
+    private final int threads;
+    private final int ramp;
+    private final boolean binary;
+    private final Reaction reaction;
+    /** sentinel used to control the workers */
+    private volatile boolean go = true;
+
+    private final AtomicInteger open = new AtomicInteger();
+    private final LongAdder connects = new LongAdder();
+    private final LongAdder messagesIn = new LongAdder();
+    private final LongAdder messagesOut = new LongAdder();
+    private final LongAdder games = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    /**
+     * Create a load generator.
+     * @param address the server
+     * @param connections connections kept open
+     * @param threads selector threads the connections are spread over
+     * @param ramp connections opened per second, 0 to open them all at once
+     * @param binary true to switch the connections to binary frames
+     * @param reaction the reaction times
+     */
+    public WAMBot(InetSocketAddress address, int connections, int threads, int ramp, boolean binary,
+                  Reaction reaction) {
+        this.address = address;
+        this.connections = connections;
+        this.threads = Math.max(1, Math.min(threads, connections));
+        this.ramp = ramp;
+        this.binary = binary;
+        this.reaction = reaction;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int seconds = SECONDS;
+        int ramp = 0;
+        boolean binary = false;
+        String reaction = REACTION;
+        int first = 0;
+        try {
+            for (; first < args.length && args[first].startsWith("--"); first++) {
+                String option = args[first];
+                String value = option.substring(option.indexOf('=') + 1);
+                if (option.equals("--binary")) {
+                    binary = true;
+                } else if (option.startsWith("--threads=")) {
+                    threads = Integer.parseInt(value);
+                } else if (option.startsWith("--seconds=")) {
+                    seconds = Integer.parseInt(value);
+                } else if (option.startsWith("--ramp=")) {
+                    ramp = Integer.parseInt(value);
+                } else if (option.startsWith("--reaction=")) {
+                    reaction = value;
+                } else {
+                    first = args.length;
+                }
+            }
+            if (args.length - first != 3) {
+                throw new IllegalArgumentException();
+            }
+            InetSocketAddress address = new InetSocketAddress(args[first], Integer.parseInt(args[first + 1]));
+            WAMBot bot = new WAMBot(address, Integer.parseInt(args[first + 2]), threads, ramp, binary,
+                    Reaction.parse(reaction));
+            bot.run(seconds);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Usage: [--threads=N] [--seconds=N] [--ramp=connections-per-second] [--binary]");
+            System.out.println("       [--reaction=fixed:T|uniform:MIN:MAX|normal:MEAN:SD|exp:MEAN]  host  port  #connections");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Put load on the server for a while, printing the throughput every
+     * second and the latencies at the end.
+     * @param seconds length of the run
+     * @throws IOException if a selector cannot be opened
+     * @throws InterruptedException if interrupted
+     */
+    public void run(int seconds) throws IOException, InterruptedException {
+        List<Worker> workers = new ArrayList<>(threads);
+        List<Thread> running = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            int share = connections / threads + (i < connections % threads ? 1 : 0);
+            Worker worker = new Worker(share, i);
+            workers.add(worker);
+            Thread thread = new Thread(worker, "WAMBot-" + i);
+            thread.start();
+            running.add(thread);
+        }
+        long start = System.nanoTime();
+        long in = 0;
+        long out = 0;
+        for (int s = 1; s <= seconds; s++) {
+            Thread.sleep(Math.max(0, start + s * 1_000_000_000L - System.nanoTime()) / 1_000_000);
+            long nowIn = messagesIn.sum();
+            long nowOut = messagesOut.sum();
+            System.out.printf("%4ds  %6d open  %8d in/s  %8d out/s  %6d games  %4d errors%n",
+                    s, open.get(), nowIn - in, nowOut - out, games.sum(), errors.sum());
+            in = nowIn;
+            out = nowOut;
+        }
+        go = false;
+        for (Thread thread : running) {
+            thread.join();
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        WAMHistogram welcome = new WAMHistogram();
+        WAMHistogram whack = new WAMHistogram();
+        for (Worker worker : workers) {
+            welcome.add(worker.welcome);
+            whack.add(worker.whack);
+        }
+        System.out.printf("%d connects, %d games, %d errors in %.1f s%n", connects.sum(), games.sum(),
+                errors.sum(), elapsed);
+        System.out.printf("throughput       %.0f messages/s in, %.0f messages/s out%n",
+                messagesIn.sum() / elapsed, messagesOut.sum() / elapsed);
+        welcome.print(System.out, "connect-welcome", 1e6, "ms");
+        whack.print(System.out, "whack-mole_down", 1e6, "ms");
+    }
+
+    /**
+     * A whack waiting for its reaction time to pass.
+     */
+    private static class Whack implements Comparable<Whack> {
+        final long due;
+        final Connection connection;
+        final int mole;
+
+        Whack(long due, Connection connection, int mole) {
+            this.due = due;
+            this.connection = connection;
+            this.mole = mole;
+        }
+
+        @Override
+        public int compareTo(Whack other) {
+            return Long.compare(due, other.due);
+        }
+    }
+
+    /**
+     * A selector thread serving a share of the connections. The histograms
+     * and the pending whacks belong to this thread alone.
+     */
+    private class Worker implements Runnable {
+        final int count;
+        final Selector selector;
+        final PriorityQueue<Whack> whacks = new PriorityQueue<>();
+        final SplittableRandom random;
+        final WAMHistogram welcome = new WAMHistogram();
+        final WAMHistogram whack = new WAMHistogram();
+
+        Worker(int count, int seed) throws IOException {
+            this.count = count;
+            this.selector = Selector.open();
+            this.random = new SplittableRandom(seed);
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            int opened = 0;
+            while (go) {
+                long now = System.nanoTime();
+                //open the connections the ramp allows by now.
+                long allowed = ramp <= 0 ? count : Math.min(count, 1 + (now - start) * ramp / threads / 1_000_000_000L);
+                for (; opened < allowed; opened++) {
+                    connect();
+                }
+                //whack the moles whose reaction time is over.
+                Whack next;
+                while ((next = whacks.peek()) != null && next.due <= now) {
+                    whacks.poll();
+                    next.connection.whack(next.mole, now);
+                }
+                long wait = next == null ? 100 : Math.max(1, (next.due - now) / 1_000_000);
+                if (opened < count) wait = Math.min(wait, 10);
+                try {
+                    selector.select(wait);
+                } catch (IOException e) {
+                    errors.increment();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    ((Connection) key.attachment()).ready(key);
+                }
+            }
+            for (SelectionKey key : selector.keys()) {
+                ((Connection) key.attachment()).close();
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // squash
+            }
+        }
+
+        /**
+         * Open a new connection.
+         */
+        void connect() {
+            try {
+                SocketChannel channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                Connection connection = new Connection(this, channel);
+                boolean connected = channel.connect(address);
+                connection.key = channel.register(selector,
+                        connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, connection);
+                connects.increment();
+                open.incrementAndGet();
+            } catch (IOException e) {
+                errors.increment();
+            }
+        }
+    }
+
+    /**
+     * One bot playing over one connection.
+     */
+    private class Connection implements WAMDecoder.Handler {
+        final Worker worker;
+        final SocketChannel channel;
+        final ByteBuffer in = ByteBuffer.allocate(MAX_LINE);
+        final ByteBuffer out = ByteBuffer.allocate(OUT_SIZE);
+        final WAMDecoder decoder = new WAMDecoder(this);
+        final long connectTime = System.nanoTime();
+        SelectionKey key;
+        boolean sendBinary;
+        boolean closed;
+        int player_number = -1;
+        /** which moles are up */
+        boolean[] up = new boolean[0];
+        /** nano time each mole was whacked, 0 if it was not */
+        long[] sent = new long[0];
+        /** times from a whack to a MOLE_DOWN since the last SCORE, recorded if the SCORE says they scored */
+        long[] answered = new long[8];
+        int answeredCount;
+        /** MOLE_DOWNs since the last SCORE of moles this bot did not whack, -1 each */
+        int dropped;
+        /** this bot's score in the last SCORE */
+        int score;
+
+        Connection(Worker worker, SocketChannel channel) {
+            this.worker = worker;
+            this.channel = channel;
+        }
+
+        /**
+         * Serve a ready key of this connection.
+         * @param key the key
+         */
+        void ready(SelectionKey key) {
+            try {
+                if (!key.isValid()) return;
+                if (key.isConnectable()) {
+                    if (channel.finishConnect()) key.interestOps(SelectionKey.OP_READ);
+                    return;
+                }
+                if (key.isReadable()) {
+                    if (channel.read(in) < 0) {
+                        reconnect();
+                        return;
+                    }
+                    in.flip();
+                    messagesIn.add(decoder.decode(in));
+                    in.compact();
+                    if (!in.hasRemaining()) throw new IOException("message too long");
+                }
+                if (!closed && key.isValid() && key.isWritable()) flush();
+            } catch (IOException e) {
+                errors.increment();
+                reconnect();
+            }
+        }
+
+        /**
+         * Whack a mole if it is still up.
+         * @param mole the mole number
+         * @param now the nano time
+         */
+        void whack(int mole, long now) {
+            if (closed || !up[mole]) return;
+            sent[mole] = now;
+            send(WAMEncoder.local(sendBinary).whack(mole, player_number));
+        }
+
+        /**
+         * Write a message, or keep it until the channel takes it.
+         * @param frame the message
+         */
+        void send(ByteBuffer frame) {
+            if (out.remaining() < frame.remaining()) {
+                errors.increment();
+                return;
+            }
+            out.put(frame);
+            messagesOut.increment();
+            try {
+                flush();
+            } catch (IOException e) {
+                errors.increment();
+                reconnect();
+            }
+        }
+
+        /**
+         * Write what the channel takes of the kept output.
+         * @throws IOException if writing fails
+         */
+        void flush() throws IOException {
+            out.flip();
+            channel.write(out);
+            out.compact();
+            if (key.isValid()) {
+                key.interestOps(out.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+            }
+        }
+
+        /**
+         * Close this connection and open another while the run goes on.
+         */
+        void reconnect() {
+            close();
+            if (go) worker.connect();
+        }
+
+        /**
+         * Close this connection.
+         */
+        void close() {
+            if (closed) return;
+            closed = true;
+            open.decrementAndGet();
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // squash
+            }
+        }
+
+        @Override
+        public void onWelcome(int rows, int cols, int players, int player_number) {
+            worker.welcome.record(System.nanoTime() - connectTime);
+            this.player_number = player_number;
+            up = new boolean[rows * cols];
+            sent = new long[rows * cols];
+            if (binary) {
+                //whacks stay text until the server agrees.
+                send(WAMEncoder.local(false).binaryRequest());
+            }
+        }
+
+        @Override
+        public void onBinary() {
+            decoder.setBinary(true);
+            sendBinary = true;
+        }
+
+        @Override
+        public void onPing(int id) {
+            send(WAMEncoder.local(sendBinary).pong(id));
+        }
+
+        @Override
+        public void onMoleUp(int mole) {
+            if (mole < 0 || mole >= up.length) return;
+            up[mole] = true;
+            worker.whacks.add(new Whack(System.nanoTime() + reaction.nanos(worker.random), this, mole));
+        }
+
+        @Override
+        public void onMoleDown(int mole) {
+            if (mole < 0 || mole >= up.length) return;
+            up[mole] = false;
+            if (sent[mole] != 0) {
+                if (answeredCount == answered.length) answered = Arrays.copyOf(answered, 2 * answeredCount);
+                answered[answeredCount++] = System.nanoTime() - sent[mole];
+                sent[mole] = 0;
+            } else {
+                dropped++;
+            }
+        }
+
+        @Override
+        public void onScore(int[] scores, int count) {
+            if (player_number < 0 || player_number >= count) return;
+            int change = scores[player_number] - score;
+            score = scores[player_number];
+            //a hit is +2 and a mole that dropped before a whack -1.
+            if (change == 2 * answeredCount - dropped) {
+                for (int i = 0; i < answeredCount; i++) {
+                    worker.whack.record(answered[i]);
+                }
+            }
+            answeredCount = 0;
+            dropped = 0;
+        }
+
+        @Override
+        public void onGameWon() {
+            games.increment();
+        }
+
+        @Override
+        public void onGameLost() {
+            games.increment();
+        }
+
+        @Override
+        public void onGameTied() {
+            games.increment();
+        }
+
+        @Override
+        public void onError(String message) {
+            errors.increment();
+        }
+    }
+}
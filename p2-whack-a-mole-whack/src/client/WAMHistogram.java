@@ -0,0 +1,137 @@
+package client;
+
+import java.io.PrintStream;
+
+/**
+ * A histogram of latencies laid out like an HdrHistogram. Values below 256
+ * each get a bucket of their own; above that every doubling of the value is
+ * split into 128 buckets, so any value is kept to within 1% in a fixed
+ * array. Recording never allocates. A histogram is not thread safe: each
+ * thread records into its own and they are added up at the end.
+ *
+ * @author Daniel Cho
+ * @author Juan Patino
+ */
+public class WAMHistogram {
+
+    /** bits of a value that are kept */
+    private static final int SUB_BITS = 8;
+    /** buckets per doubling of the value */
+    private static final int HALF = 1 << (SUB_BITS - 1);
+
+    /** number of values per bucket */
+    private final long[] counts = new long[(65 - SUB_BITS) * HALF];
+    private long count;
+    private long total;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    /**
+     * Record one value.
+     * @param value the value, negative values count as 0
+     */
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts[index(value)]++;
+        count++;
+        total += value;
+        if (value < min) min = value;
+        if (value > max) max = value;
+    }
+
+    /**
+     * Add the values of another histogram to this one.
+     * @param other the other histogram
+     */
+    public void add(WAMHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        total += other.total;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * @return number of values recorded
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the smallest value, 0 if there is none
+     */
+    public long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    /**
+     * @return the largest value
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * @return the mean of the values, 0 if there is none
+     */
+    public double getMean() {
+        return count == 0 ? 0 : (double) total / count;
+    }
+
+    /**
+     * Find the value below which a percentage of the values fall.
+     * @param percentile the percentage, 0 to 100
+     * @return the value, 0 if there is none
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (count == 0) return 0;
+        long wanted = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= wanted) {
+                return Math.max(min, Math.min(max, value(i)));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Print a one line summary of the values.
+     * @param out where to print
+     * @param title what was measured
+     * @param unit value of one unit of the output, 1000 to print nanoseconds as microseconds
+     * @param name name of the output unit
+     */
+    public void print(PrintStream out, String title, double unit, String name) {
+        out.printf("%-16s %8d samples  mean %.1f  p50 %.1f  p90 %.1f  p99 %.1f  p99.9 %.1f  max %.1f %s%n",
+                title, count, getMean() / unit,
+                getValueAtPercentile(50) / unit, getValueAtPercentile(90) / unit,
+                getValueAtPercentile(99) / unit, getValueAtPercentile(99.9) / unit,
+                getMax() / unit, name);
+    }
+
+    /**
+     * @param value a value
+     * @return the bucket of the value
+     */
+    static int index(long value) {
+        if (value < 2 * HALF) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1);
+        return (shift + 1) * HALF + (int) (value >>> shift) - HALF;
+    }
+
+    /**
+     * @param index a bucket
+     * @return the value in the middle of the bucket
+     */
+    static long value(int index) {
+        if (index < 2 * HALF) return index;
+        int shift = index / HALF - 1;
+        long low = (long) (index % HALF + HALF) << shift;
+        return low + (1L << shift) / 2;
+    }
+}
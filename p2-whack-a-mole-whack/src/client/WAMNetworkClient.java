@@ -1,13 +1,16 @@
 package client;
 
+import common.WAMDecoder;
+import common.WAMEncoder;
 import common.WhackException;
 import javafx.application.Application;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.net.Socket;
-import java.util.ArrayList;
-import java.util.NoSuchElementException;
-import java.util.Scanner;
+import java.nio.ByteBuffer;
 import static common.WAMProtocol.*;
 
 /**
@@ -15,13 +18,15 @@ import static common.WAMProtocol.*;
  * Each of the two players in a game gets its own connection to the server.
  * This class represents the controller part of a model-view-controller
  * triumvirate, in that part of its purpose is to forward user actions
- * to the remote server.
+ * to the remote server. Server messages are decoded straight from the
+ * received bytes by a {@link WAMDecoder}, which calls back the typed
+ * handler methods of this class.
  *
  * @author Daniel Cho
  * @author Juan Patino
  */
 public class WAMNetworkClient
-     {
+        implements WAMDecoder.Handler {
     /** Turn on if standard output debug messages are desired. */
     private static final boolean DEBUG = false;
 
@@ -38,8 +43,17 @@ public class WAMNetworkClient
 
     /** client socket to communicate with server */
     private Socket clientSocket;
+    /** longest message the server may send */
+    private static final int MAX_LINE = 64 * 1024;
+
     /** used to read requests from the server */
-    private Scanner networkIn;
+    private InputStream networkIn;
+    /** bytes received and not yet decoded */
+    private ByteBuffer inBuffer = ByteBuffer.allocate(MAX_LINE);
+    /** decodes the server messages and calls the handler methods */
+    private WAMDecoder decoder = new WAMDecoder(this);
+    /** true once whacks are sent as binary frames, after the server agreed */
+    private volatile boolean binary;
     /** Used to write responses to the server. */
     private PrintStream networkOut;
     /** the model which keeps track of the game */
@@ -47,7 +61,6 @@ public class WAMNetworkClient
     /** sentinel loop used to control the main loop */
     private boolean go;
     private int rows, cols, players, player_number;
-    private ArrayList<Integer> scoreList = new ArrayList<>();
 
     /**
      * Accessor that takes multithreaded access into account
@@ -93,6 +106,16 @@ public class WAMNetworkClient
      *
      * @param arguments The error message sent from the reversi.server.
      */
+    @Override
+    public void onError( String arguments ) {
+        error( arguments );
+    }
+
+    /**
+     * Called when the connection to the server is damaged. Ends the game.
+     *
+     * @param arguments The error message.
+     */
     public void error( String arguments ) {
         WAMNetworkClient.dPrint( '!' + ERROR + ',' + arguments );
         dPrint( "Fatal error: " + arguments );
@@ -117,31 +140,104 @@ public class WAMNetworkClient
             throws WhackException {
         try {
             this.clientSocket = new Socket(host, port);
-            this.networkIn = new Scanner(clientSocket.getInputStream());
-            this.networkOut = new PrintStream(clientSocket.getOutputStream());
+            // Whacks go out one by one and are flushed at once, so Nagle
+            // would only hold them back.
+            this.clientSocket.setTcpNoDelay(true);
+            this.networkIn = clientSocket.getInputStream();
+            this.networkOut = new PrintStream(new BufferedOutputStream(clientSocket.getOutputStream()));
             this.model = model;
             this.go = true;
+            handshake();
+        }
+        catch(IOException e) {
+            throw new WhackException(e);
+        }
+    }
 
-            // Block waiting for the CONNECT message from the server.
-            String request = this.networkIn.next();
-            String arguments = this.networkIn.nextLine();
-            String[] fields = arguments.trim().split(" ");
-            this.rows = Integer.parseInt(fields[0]);
-            this.cols = Integer.parseInt(fields[1]);
-            this.players = Integer.parseInt(fields[2]);
-            this.player_number = Integer.parseInt(fields[3]);
-            System.out.println(rows + " " + cols + " " + players + " " + player_number);
-            if (!request.equals(WELCOME )) {
-                throw new WhackException("Expected CONNECT from server");
-            }
-            WAMNetworkClient.dPrint("Connected to server " + this.clientSocket);
-            makeWelcome(arguments); //directly call this method
+    /**
+     * Play over a pair of streams instead of a socket, for example to feed
+     * the client recorded server messages. Blocks for the first message
+     * like the socket constructor does.
+     *
+     * @param in    what the server sends
+     * @param out   where the messages to the server go
+     * @param model the local object holding the state of the game
+     * @throws WhackException If the server does not welcome the client
+     */
+    WAMNetworkClient(InputStream in, OutputStream out, Model model) throws WhackException {
+        this.networkIn = in;
+        this.networkOut = new PrintStream(new BufferedOutputStream(out));
+        this.model = model;
+        this.go = true;
+        try {
+            handshake();
         }
         catch(IOException e) {
             throw new WhackException(e);
         }
     }
 
+    /**
+     * Wait for the WELCOME of the server and ask it for binary frames.
+     *
+     * @throws WhackException If the server refuses the client
+     * @throws IOException If reading fails
+     */
+    private void handshake() throws WhackException, IOException {
+        // Block waiting for the CONNECT message from the server.
+        String[] refused = new String[1];
+        boolean[] welcomed = new boolean[1];
+        WAMDecoder welcome = new WAMDecoder(new WAMDecoder.Handler() {
+            @Override
+            public void onWelcome(int rows, int cols, int players, int player_number) {
+                welcomed[0] = true;
+                makeWelcome(rows, cols, players, player_number);
+            }
+
+            @Override
+            public void onError(String message) {
+                refused[0] = message;
+            }
+        });
+        if (!readMessage(welcome) || !welcomed[0]) {
+            throw new WhackException(refused[0] != null ? refused[0] : "Expected CONNECT from server");
+        }
+        WAMNetworkClient.dPrint(rows + " " + cols + " " + players + " " + player_number);
+        WAMNetworkClient.dPrint("Connected to server " + this.clientSocket);
+
+        // Ask for binary frames. Whacks stay text until the server agrees
+        // in onBinary(): a server that does not know the request could
+        // not read a frame.
+        send(WAMEncoder.local().binaryRequest());
+    }
+
+    /**
+     * Decode the next message from the server, reading more bytes as long
+     * as no complete message has been received. Bytes of following
+     * messages stay buffered for the next call.
+     *
+     * @param decoder decodes the message
+     * @return false if the connection shut down
+     * @throws IOException if reading fails
+     */
+    private boolean readMessage(WAMDecoder decoder) throws IOException {
+        inBuffer.flip();
+        while (!decoder.decodeOne(inBuffer)) {
+            inBuffer.compact();
+            if (!inBuffer.hasRemaining()) {
+                throw new IOException("Message too long");
+            }
+            int n = this.networkIn.read(inBuffer.array(), inBuffer.position(), inBuffer.remaining());
+            if (n < 0) {
+                return false;
+            }
+            inBuffer.position(inBuffer.position() + n);
+            inBuffer.flip();
+        }
+        inBuffer.compact();
+        return true;
+    }
+
     /**
      * Called from the GUI when it is ready to start receiving messages
      * from the server.
@@ -152,11 +248,20 @@ public class WAMNetworkClient
 
     /**
      * Called as soon as the server is connected to players.
-     * @param arguments
+     * @param rows
+     * @param cols
+     * @param players
+     * @param player_number
      */
-    public void makeWelcome( String arguments ) {
+    public void makeWelcome(int rows, int cols, int players, int player_number) {
+        this.rows = rows;
+        this.cols = cols;
+        this.players = players;
+        this.player_number = player_number;
         //Send the message to players.
-        WAMNetworkClient.dPrint( '!' + WELCOME + ',' + arguments );
+        if (DEBUG) {
+            dPrint( '!' + WELCOME + ',' + rows + ' ' + cols + ' ' + players + ' ' + player_number );
+        }
 
         // Update the board model.
         this.model.makeWelcome(rows, cols, players, player_number);
@@ -165,13 +270,13 @@ public class WAMNetworkClient
 
     /**
      * make moles pop up on the board model and is called by the server.
-     * @param arguments
+     * @param column the mole number
      */
-    public void makePopup( String arguments ) {
-        WAMNetworkClient.dPrint( '!' + MOLE_UP + ',' + arguments );
-
-        String[] fields = arguments.trim().split( " " );
-        int column = Integer.parseInt(fields[0]);
+    @Override
+    public void onMoleUp( int column ) {
+        if (DEBUG) {
+            dPrint( '!' + MOLE_UP + ',' + column );
+        }
 
         // Update the board model.
         this.model.makePopup(column);
@@ -179,13 +284,13 @@ public class WAMNetworkClient
 
     /**
      * make moles pop down on the board model and is called by the server.
-     * @param arguments
+     * @param column the mole number
      */
-    public void makePopdown( String arguments ) {
-        WAMNetworkClient.dPrint( '!' + MOLE_DOWN + ',' + arguments );
-
-        String[] fields = arguments.trim().split( " " );
-        int column = Integer.parseInt(fields[0]);
+    @Override
+    public void onMoleDown( int column ) {
+        if (DEBUG) {
+            dPrint( '!' + MOLE_DOWN + ',' + column );
+        }
 
         // Update the board model.
         this.model.makePopdown(column);
@@ -193,13 +298,45 @@ public class WAMNetworkClient
 
     /**
      * send a whack to server to calculate the player scores.
-     * @param arguments
+     * @param mole_num the mole number
+     * @param player_number the player number
      */
-    public void madeWhack( String arguments ) {
-        String[] fields = arguments.trim().split(" ");
-        int mole_num = Integer.parseInt(fields[0]);
-        int player_number = Integer.parseInt(fields[1]);
-        networkOut.println(WHACK + " " + mole_num + " " + player_number);
+    public void madeWhack( int mole_num, int player_number ) {
+        send(WAMEncoder.local(binary).whack(mole_num, player_number));
+    }
+
+    /**
+     * Called when the server answers the request for binary frames:
+     * everything it sends from now on is binary, and so is everything
+     * sent to it.
+     */
+    @Override
+    public void onBinary() {
+        WAMNetworkClient.dPrint( '!' + BINARY );
+        this.decoder.setBinary(true);
+        this.binary = true;
+    }
+
+    /**
+     * Called when the server times the round trip: answer right away.
+     * @param id the number to echo
+     */
+    @Override
+    public void onPing(int id) {
+        send(WAMEncoder.local(binary).pong(id));
+    }
+
+    /**
+     * Write an encoded message to the server and flush it. A PrintStream
+     * hides write failures, so they are checked for and end the game.
+     * @param frame the message
+     */
+    private synchronized void send(ByteBuffer frame) {
+        networkOut.write(frame.array(), frame.position(), frame.remaining());
+        networkOut.flush();
+        if (networkOut.checkError()) {
+            this.error( "Lost connection to server." );
+        }
     }
 
     /**
@@ -236,13 +373,43 @@ public class WAMNetworkClient
         this.stop();
     }
 
+    @Override
+    public void onGameWon() {
+        gameWon();
+    }
+
+    @Override
+    public void onGameLost() {
+        gameLost();
+    }
+
+    @Override
+    public void onGameTied() {
+        gameTied();
+    }
+
+    /**
+     * Called for a message this client does not understand. Ends the game.
+     * @param line the message
+     */
+    @Override
+    public void onUnknown(String line) {
+        System.err.println("Unrecognized request: " + line);
+        this.stop();
+    }
+
     /**
      * This method should be called at the end of the game to
      * close the client connection.
      */
     public void close() {
         try {
-            this.clientSocket.close();
+            if (this.clientSocket != null) {
+                this.clientSocket.close();
+            } else {
+                this.networkIn.close();
+                this.networkOut.close();
+            }
         }
         catch( IOException ioe ) {
             // squash
@@ -252,16 +419,13 @@ public class WAMNetworkClient
 
     /**
      * update the total score.
-     * @param arguments
+     * @param scores the scores of all players
+     * @param count number of scores
      */
-    public void makeScore(String arguments) {
-        String[] fields = arguments.trim().split(" ");
-        for (int i = 0; i < players; i++) {
-            scoreList.add(i, Integer.parseInt(fields[i]));
-        }
-
-        // Update the board model.
-        this.model.makeScore(scoreList);
+    @Override
+    public void onScore(int[] scores, int count) {
+        // Update the board model, which copies the scores in place.
+        this.model.makeScore(scores, count);
     }
         /**
          * Run the main client loop. Intended to be started as a separate
@@ -271,43 +435,12 @@ public class WAMNetworkClient
         public void run() {
         while (this.goodToGo()) {
             try {
-                String request = this.networkIn.next();
-                String arguments = this.networkIn.nextLine().trim();
-                WAMNetworkClient.dPrint( "Net message in = \"" + request + '"' );
-
-                switch ( request ) {
-                    case MOLE_UP:
-                        makePopup( arguments );
-                        break;
-                    case MOLE_DOWN:
-                        makePopdown( arguments );
-                        break;
-                    case SCORE:
-                        makeScore( arguments );
-                        break;
-                    case GAME_WON:
-                        gameWon();
-                        break;
-                    case GAME_LOST:
-                        gameLost();
-                        break;
-                    case GAME_TIED:
-                        gameTied();
-                        break;
-                    case ERROR:
-                        error( arguments );
-                        break;
-                    default:
-                        System.err.println("Unrecognized request: " + request);
-                        this.stop();
-                        break;
+                if (!readMessage(this.decoder)) {
+                    // Looks like the connection shut down.
+                    this.error( "Lost connection to server." );
+                    this.stop();
                 }
             }
-            catch( NoSuchElementException nse ) {
-                // Looks like the connection shut down.
-                this.error( "Lost connection to server." );
-                this.stop();
-            }
             catch( Exception e ) {
                 this.error( e.getMessage() + '?' );
                 this.stop();
@@ -0,0 +1,66 @@
+package client.gui;
+
+import javafx.scene.image.Image;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The images of the {@link WAMGUI}, each decoded once and shared by every
+ * button that shows it. An {@link Image} may be shown by any number of
+ * image views, so popping a mole only swaps the image of a view instead
+ * of reading and decoding the file again.
+ *
+ * @author Daniel Cho
+ * @author Juan Patino
+ */
+final class WAMAssets {
+
+    /** a hole with a mole to whack */
+    static final String NO_MOLE = "noMole.png";
+    /** a hole whose mole was whacked */
+    static final String YES_MOLE = "yesMole.png";
+    /** the score banner */
+    static final String SCORE = "Score.png";
+
+    /** the images decoded so far, by file name */
+    private static final ConcurrentHashMap<String, Image> images = new ConcurrentHashMap<>();
+
+    private WAMAssets() {
+    }
+
+    /**
+     * Decode the images of the game, so the first frames do not have to.
+     */
+    static void preload() {
+        get(NO_MOLE);
+        get(YES_MOLE);
+        get(SCORE);
+    }
+
+    /**
+     * @param fileName the image file, next to this class
+     * @return the image, decoded the first time it is asked for
+     */
+    static Image get(String fileName) {
+        return images.computeIfAbsent(fileName, WAMAssets::load);
+    }
+
+    /**
+     * Read and decode an image.
+     * @param fileName the image file, next to this class
+     * @return the image
+     */
+    private static Image load(String fileName) {
+        try (InputStream in = WAMAssets.class.getResourceAsStream(fileName)) {
+            if (in == null) {
+                throw new IllegalArgumentException("No image " + fileName);
+            }
+            return new Image(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package client.gui;
+
+import client.ModelEvent;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Changes of the board and the score waiting for the next frame of the
+ * {@link WAMGUI}. The network thread folds every {@link ModelEvent} in as
+ * it comes; once per frame the FX thread takes what changed since the
+ * last frame. Changes of the same hole fold into one, so a frame never
+ * has more to show than the board has holes, however fast the server
+ * sends. Nothing here takes a lock.
+ *
+ * @author Daniel Cho
+ * @author Juan Patino
+ */
+class WAMChanges {
+
+    /** number of holes */
+    private final int size;
+    /** the player whose score is shown */
+    private final int player_number;
+    /** one bit per hole, set while its mole is up */
+    private final AtomicLongArray up;
+    /** one bit per hole, set if the hole changed since the last frame */
+    private final AtomicLongArray dirty;
+    /** the latest score of the player */
+    private final AtomicInteger score = new AtomicInteger();
+    /** the latest start or end of the game not shown yet, null if none */
+    private final AtomicReference<ModelEvent> status = new AtomicReference<>();
+    /** true if anything changed since the last frame */
+    private final AtomicBoolean pending = new AtomicBoolean();
+
+    /**
+     * @param size number of holes
+     * @param player_number the player whose score is shown
+     */
+    WAMChanges(int size, int player_number) {
+        this.size = size;
+        this.player_number = player_number;
+        int words = (size + 63) >>> 6;
+        this.up = new AtomicLongArray(words);
+        this.dirty = new AtomicLongArray(words);
+    }
+
+    /**
+     * Fold in a change of the model. Called by the thread that changes
+     * the model.
+     * @param change the change
+     */
+    void add(ModelEvent change) {
+        int mole = change.getMole();
+        switch (change.getType()) {
+            case MOLE_UP:
+                if (mole < 0 || mole >= size) return;
+                set(up, mole);
+                set(dirty, mole);
+                break;
+            case MOLE_DOWN:
+                if (mole < 0 || mole >= size) return;
+                clear(up, mole);
+                set(dirty, mole);
+                break;
+            case SCORE:
+                score.set(change.getScore(player_number));
+                break;
+            default:
+                status.set(change);
+        }
+        // the change is in place before the frame is told about it.
+        pending.set(true);
+    }
+
+    /**
+     * @return true if anything changed since the last call
+     */
+    boolean takePending() {
+        return pending.getAndSet(false);
+    }
+
+    /**
+     * @return number of words of the hole bitmaps
+     */
+    int words() {
+        return up.length();
+    }
+
+    /**
+     * Take the holes of one word that changed since the last frame.
+     * @param word the word
+     * @return one bit per hole of the word that changed
+     */
+    long takeDirty(int word) {
+        return dirty.getAndSet(word, 0);
+    }
+
+    /**
+     * @param mole a mole number
+     * @return true if the mole is up
+     */
+    boolean isUp(int mole) {
+        return (up.get(mole >>> 6) & 1L << mole) != 0;
+    }
+
+    /**
+     * @return the latest score of the player
+     */
+    int getScore() {
+        return score.get();
+    }
+
+    /**
+     * @return the latest start or end of the game not taken yet, null if none
+     */
+    ModelEvent takeStatus() {
+        return status.getAndSet(null);
+    }
+
+    /**
+     * Set a bit.
+     * @param bits the bitmap
+     * @param i the bit
+     */
+    private static void set(AtomicLongArray bits, int i) {
+        long bit = 1L << i;
+        int w = i >>> 6;
+        long old;
+        do {
+            old = bits.get(w);
+        } while ((old & bit) == 0 && !bits.compareAndSet(w, old, old | bit));
+    }
+
+    /**
+     * Clear a bit.
+     * @param bits the bitmap
+     * @param i the bit
+     */
+    private static void clear(AtomicLongArray bits, int i) {
+        long bit = 1L << i;
+        int w = i >>> 6;
+        long old;
+        do {
+            old = bits.get(w);
+        } while ((old & bit) != 0 && !bits.compareAndSet(w, old, old & ~bit));
+    }
+}
@@ -1,10 +1,11 @@
 package client.gui;
 
 import client.Model;
+import client.ModelEvent;
 import client.WAMNetworkClient;
 import common.WhackException;
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
-import javafx.application.Platform;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
@@ -19,7 +20,11 @@ import java.util.ArrayList;
 import java.util.List;
 
 /**
- * A JavaFX GUI for the networked Whack-A-Mole game.
+ * A JavaFX GUI for the networked Whack-A-Mole game. The changes the
+ * network thread makes to the model are folded into {@link WAMChanges}
+ * and shown once per frame by an {@link AnimationTimer}, so the work of
+ * the FX thread per frame is bounded by the size of the board, whatever
+ * the rate of messages.
  *
  * @author Daniel Cho
  * @author Juan Patino
@@ -34,7 +39,14 @@ public class WAMGUI extends Application implements Observer<Model> {
     private TextField message1 = new TextField();
     /** connection to network interface to server */
     private WAMNetworkClient serverConn;
-    private ArrayList<Integer> score;
+    /** changes drained from the model; guarded by itself */
+    private final ArrayList<ModelEvent> changes = new ArrayList<>();
+    /** changes waiting for the next frame */
+    private WAMChanges pending;
+    /** shows the pending changes once per frame */
+    private AnimationTimer renderer;
+    /** the score shown; FX thread only */
+    private int shownScore = -1;
     private int rows, cols, player_number;
 
     @Override
@@ -48,8 +60,6 @@ public class WAMGUI extends Application implements Observer<Model> {
 
             // create uninitialized model
             this.model = new Model();
-            // add ourselves as an observer
-            model.addObserver(this);
 
             // create the network connection
             this.serverConn = new WAMNetworkClient(host, port, this.model);
@@ -57,6 +67,14 @@ public class WAMGUI extends Application implements Observer<Model> {
             this.cols = this.serverConn.getCols();
             this.player_number = this.serverConn.getPlayer_number();
 
+            // add ourselves as an observer once the board size is known;
+            // the listener thread is not started yet, so nothing is missed.
+            this.pending = new WAMChanges(rows * cols, player_number);
+            model.addObserver(this);
+
+            // decode the images while the window is not up yet
+            WAMAssets.preload();
+
         } catch(NumberFormatException |
                 ArrayIndexOutOfBoundsException |
                 WhackException e){
@@ -80,12 +98,21 @@ public class WAMGUI extends Application implements Observer<Model> {
         stage.setTitle("Whack-A-Mole"); //ideally we want to specify the player
         stage.show();
 
-        // Start the network client listener thread
-        this.serverConn.startListener();
-
         // Manually force a display of all board state, since it's too late
         // to trigger update().
-        this.refresh();
+        message1.setText("Start");
+        showScore(model.getScore(player_number));
+
+        this.renderer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                refresh();
+            }
+        };
+        this.renderer.start();
+
+        // Start the network client listener thread
+        this.serverConn.startListener();
     }
 
     /**
@@ -96,14 +123,13 @@ public class WAMGUI extends Application implements Observer<Model> {
         int mole_row = mole_num / cols; //solved both cases when number of rows and cols are different + when number of rows and cols are same
         int mole_col = (mole_num % cols) + 1;
         moleSpotButton[mole_row][mole_col].setDisable(false); //when button is popped up, it has to be enabled.
-        revealImg(moleSpotButton[mole_row][mole_col], "noMole.png"); //ideally the only things that should change about moles are the image
+        revealImg(moleSpotButton[mole_row][mole_col], WAMAssets.NO_MOLE); //ideally the only things that should change about moles are the image
 
         moleSpotButton[mole_row][mole_col].setOnAction(e -> {
-            serverConn.madeWhack(mole_num + " " + player_number);
-            revealImg(moleSpotButton[mole_row][mole_col], "yesMole.png");
+            serverConn.madeWhack(mole_num, player_number);
+            revealImg(moleSpotButton[mole_row][mole_col], WAMAssets.YES_MOLE);
             moleSpotButton[mole_row][mole_col].setDisable(true);
-            score = model.getTot_score();
-            if (score != null) output1.setText("You got " + score.get(player_number) + " scores.");
+            showScore(model.getScore(player_number));
         });
     }
 
@@ -115,20 +141,32 @@ public class WAMGUI extends Application implements Observer<Model> {
         int mole_row = mole_num / cols; //solved both cases when number of rows and cols are different + when number of rows and cols are same
         int mole_col = (mole_num % cols) + 1;
         moleSpotButton[mole_row][mole_col].setDisable(true);
-        score = model.getTot_score();
-        if (score != null) output1.setText("You got " + score.get(player_number) + " scores.");
     }
 
     /**
-     * reveals image for specific buttons.
+     * show the score of this player.
+     * @param score the score
+     */
+    private void showScore(int score) {
+        shownScore = score;
+        output1.setText("You got " + score + " scores.");
+    }
+
+    /**
+     * reveals image for specific buttons. A button keeps its image view,
+     * only the shared image it shows is swapped.
      * @param b buttons getting clicked
      * @param fileName names of the files called
      */
     private void revealImg( Button b, String fileName ) {
-        Image p = new Image(getClass().getResourceAsStream(fileName));
-        ImageView icon = new ImageView(p);
-        b.setText(null);
-        b.setGraphic(icon);
+        Image p = WAMAssets.get(fileName);
+        ImageView icon = (ImageView) b.getGraphic();
+        if (icon == null) {
+            b.setText(null);
+            b.setGraphic(new ImageView(p));
+        } else if (icon.getImage() != p) {
+            icon.setImage(p);
+        }
     }
 
     /**
@@ -137,8 +175,7 @@ public class WAMGUI extends Application implements Observer<Model> {
      */
     public GridPane makeGridPane() {
         GridPane gridPane = new GridPane();
-        Image p = new Image(getClass().getResourceAsStream("Score.png"));
-        ImageView icon = new ImageView(p);
+        ImageView icon = new ImageView(WAMAssets.get(WAMAssets.SCORE));
         gridPane.add(icon, 0, 0);
         Label label_score = new Label("            Score:  ");
         gridPane.add(label_score, 0, 1);
@@ -155,7 +192,7 @@ public class WAMGUI extends Application implements Observer<Model> {
             for (int col = 1; col < cols + 1; col++) {
                 moleSpotButton[row][col] = new Button();
                 gridPane.add(moleSpotButton[row][col], col, row);
-                revealImg(moleSpotButton[row][col], "noMole.png");
+                revealImg(moleSpotButton[row][col], WAMAssets.NO_MOLE);
                 moleSpotButton[row][col].setDisable(true);
             }
         }
@@ -169,35 +206,63 @@ public class WAMGUI extends Application implements Observer<Model> {
      */
     @Override
     public void stop() {
-        // TODO
+        if (this.renderer != null) this.renderer.stop();
         this.serverConn.close();
     }
 
     /**
-     * Called by the model, server.Model, whenever there is a state change
-     * that needs to be updated by the GUI.
+     * Called by the model, server.Model, when changes are queued that
+     * need to be updated by the GUI. They are taken right away and wait
+     * for the next frame; nothing is posted to the FX thread.
      *
      * @param model
      */
     @Override
     public void update(Model model) {
-        if ( Platform.isFxApplicationThread() ) {
-            this.refresh();
-        }
-        else {
-            Platform.runLater( () -> this.refresh() );
+        synchronized (changes) {
+            model.drainTo(changes);
+            for (int i = 0; i < changes.size(); i++) {
+                pending.add(changes.get(i));
+            }
+            changes.clear();
         }
     }
 
     /**
-     * Do your GUI updates here.
+     * Do your GUI updates here: show what changed since the last frame.
+     * Called by the FX thread once per frame.
      */
     private void refresh() {
-        Model.Status status = model.getStatus();
+        if (!pending.takePending()) return;
+        boolean popped = false;
+        for (int w = 0; w < pending.words(); w++) {
+            long bits = pending.takeDirty(w);
+            while (bits != 0) {
+                int mole = (w << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                if (pending.isUp(mole)) {
+                    this.popUpAt(mole);
+                    popped = true;
+                } else {
+                    this.popDownAt(mole);
+                }
+            }
+        }
+        if (popped) message1.setText("Whack");
+        int score = pending.getScore();
+        if (score != shownScore) showScore(score);
+        ModelEvent status = pending.takeStatus();
+        if (status != null) show(status);
+    }
 
-        switch (status) {
+    /**
+     * Show the start or the end of the game.
+     * @param change the change
+     */
+    private void show(ModelEvent change) {
+        switch (change.getType()) {
             case ERROR:
-                message1.setText(String.valueOf(status));
+                message1.setText(String.valueOf(change));
                 this.endGame();
                 break;
 
@@ -205,22 +270,6 @@ public class WAMGUI extends Application implements Observer<Model> {
                 message1.setText("Start");
                 break;
 
-            case MOLE_UP:
-                int mole_num1 = model.getMole_num();
-                this.popUpAt(mole_num1);
-                message1.setText("Whack");
-                break;
-
-            case MOLE_DOWN:
-                int mole_num2 = model.getMole_num();
-                this.popDownAt(mole_num2);
-                break;
-
-            case SCORE:
-                score = model.getTot_score();
-                output1.setText("You got " + score.get(player_number) + " scores.");
-                break;
-
             case GAME_WON:
                 message1.setText("You won. Yay!");
                 this.endGame();
@@ -238,8 +287,6 @@ public class WAMGUI extends Application implements Observer<Model> {
 
             default:
         }
-        score = model.getTot_score();
-        if (score != null) output1.setText("You got " + score.get(player_number) + " scores.");
     }
 
 
@@ -0,0 +1,54 @@
+package common;
+
+/**
+ * The optional binary framing of the {@link WAMProtocol} messages.<br>
+ *
+ * A client asks for it by answering the WELCOME message with a
+ * {@link WAMProtocol#BINARY} line. The whack.server answers with a BINARY
+ * line of its own, and every message after that line is a binary frame.
+ * The client keeps sending text lines until it reads that answer, since a
+ * server that does not know BINARY could not read a frame, and sends
+ * binary frames from then on. Every opcode is below
+ * {@link #FIRST_TEXT_BYTE}, so a server that was asked reads the text
+ * lines still on their way as text. Clients that never ask keep talking
+ * text.<br>
+ *
+ * A frame is a one-byte opcode followed by its arguments. Integers are
+ * varints: seven bits per byte, least significant group first, the high bit
+ * set on every byte but the last. Scores may be negative, so they are
+ * zig-zag encoded first. There is no length prefix since every opcode has a
+ * fixed shape:
+ * <ul>
+ *     <li>WELCOME rows cols players player_number</li>
+ *     <li>MOLE_UP mole</li>
+ *     <li>MOLE_DOWN mole</li>
+ *     <li>WHACK mole player_number</li>
+ *     <li>SCORE count, then count zig-zag scores</li>
+ *     <li>GAME_WON, GAME_LOST, GAME_TIED: no arguments</li>
+ *     <li>ERROR length, then that many ASCII bytes</li>
+ *     <li>PING id</li>
+ *     <li>PONG id</li>
+ * </ul>
+ *
+ * @author Daniel Cho
+ * @author Juan Patino
+ */
+public interface WAMBinary {
+    public static final byte OP_WELCOME = 1;
+    public static final byte OP_MOLE_UP = 2;
+    public static final byte OP_MOLE_DOWN = 3;
+    public static final byte OP_WHACK = 4;
+    public static final byte OP_SCORE = 5;
+    public static final byte OP_GAME_WON = 6;
+    public static final byte OP_GAME_LOST = 7;
+    public static final byte OP_GAME_TIED = 8;
+    public static final byte OP_ERROR = 9;
+    public static final byte OP_PING = 10;
+    public static final byte OP_PONG = 11;
+
+    /** no opcode is this high; a message that starts with this byte or above is a text line */
+    public static final byte FIRST_TEXT_BYTE = ' ';
+
+    /** most scores a SCORE frame may carry */
+    public static final int MAX_SCORES = 1 << 16;
+}
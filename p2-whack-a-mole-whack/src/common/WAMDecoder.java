@@ -0,0 +1,407 @@
+package common;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes {@link WAMProtocol} messages straight out of a byte buffer. The
+ * command is matched against the protocol's commands byte by byte and the
+ * integer arguments are parsed in place, then the matching typed method of
+ * the {@link Handler} is called. No strings are created except for the text
+ * of an ERROR message or of a line that cannot be understood.
+ * <br>
+ * Bytes can arrive in pieces: only complete lines are consumed and a partial
+ * line stays in the buffer until the rest of it has been read.
+ * <br>
+ * After {@link #setBinary(boolean)} the decoder reads {@link WAMBinary}
+ * frames instead of text lines, with the same handler methods. Every
+ * opcode is below {@link WAMBinary#FIRST_TEXT_BYTE}, so a message that
+ * starts with a printable byte is still read as a text line: the other
+ * side may keep sending text until it learns of the switch.
+ *
+ * @author Daniel Cho
+ * @author Juan Patino
+ */
+public class WAMDecoder implements WAMProtocol, WAMBinary {
+
+    /**
+     * Receives the decoded messages. Every method does nothing by default,
+     * so each side only implements the messages it expects.
+     */
+    public interface Handler {
+        /** WELCOME rows cols players player_number */
+        default void onWelcome(int rows, int cols, int players, int player_number) {}
+
+        /** MOLE_UP mole */
+        default void onMoleUp(int mole) {}
+
+        /** MOLE_DOWN mole */
+        default void onMoleDown(int mole) {}
+
+        /** BINARY: the other side switches to binary frames */
+        default void onBinary() {}
+
+        /** WHACK mole player_number */
+        default void onWhack(int mole, int player_number) {}
+
+        /**
+         * SCORE followed by every player's score.
+         * @param scores the scores; the array is reused for the next message
+         * @param count number of scores
+         */
+        default void onScore(int[] scores, int count) {}
+
+        /** GAME_WON */
+        default void onGameWon() {}
+
+        /** GAME_LOST */
+        default void onGameLost() {}
+
+        /** GAME_TIED */
+        default void onGameTied() {}
+
+        /** ERROR message */
+        default void onError(String message) {}
+
+        /** PING id */
+        default void onPing(int id) {}
+
+        /** PONG id */
+        default void onPong(int id) {}
+
+        /**
+         * A line that is not a valid message.
+         * @param line the line
+         */
+        default void onUnknown(String line) {}
+    }
+
+    private static final byte[] WELCOME_BYTES = WELCOME.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BINARY_BYTES = BINARY.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MOLE_UP_BYTES = MOLE_UP.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MOLE_DOWN_BYTES = MOLE_DOWN.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] WHACK_BYTES = WHACK.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SCORE_BYTES = SCORE.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] GAME_WON_BYTES = GAME_WON.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] GAME_LOST_BYTES = GAME_LOST.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] GAME_TIED_BYTES = GAME_TIED.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ERROR_BYTES = ERROR.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PING_BYTES = PING.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PONG_BYTES = PONG.getBytes(StandardCharsets.US_ASCII);
+
+    /** who gets the messages */
+    private final Handler handler;
+    /** integer arguments of the message being decoded, reused */
+    private int[] args = new int[8];
+    /** number of integer arguments parsed */
+    private int argCount;
+    /** read position while parsing a line or frame */
+    private int cursor;
+    /** true to read binary frames instead of text lines */
+    private boolean binary;
+
+    /**
+     * Create a decoder.
+     * @param handler who gets the messages
+     */
+    public WAMDecoder(Handler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Switch between text lines and binary frames. Takes effect with the
+     * next message, so it may be called from a handler method.
+     * @param binary true to read binary frames
+     */
+    public void setBinary(boolean binary) {
+        this.binary = binary;
+    }
+
+    /**
+     * @return true if the decoder reads binary frames
+     */
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * Decode every complete line in a buffer.
+     * @param in the buffer in read mode; its position is moved past the
+     *           last complete line
+     * @return number of messages decoded
+     */
+    public int decode(ByteBuffer in) {
+        int count = 0;
+        while (decodeOne(in)) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Decode the first complete line of a buffer, if there is one.
+     * @param in the buffer in read mode; its position is moved past the line
+     * @return false if the buffer holds no complete line
+     */
+    public boolean decodeOne(ByteBuffer in) {
+        if (binary && in.hasRemaining() && in.get(in.position()) < FIRST_TEXT_BYTE) return frame(in);
+        int start = in.position();
+        int limit = in.limit();
+        int newline = -1;
+        for (int i = start; i < limit; i++) {
+            if (in.get(i) == '\n') {
+                newline = i;
+                break;
+            }
+        }
+        if (newline < 0) return false;
+        in.position(newline + 1);
+        int end = newline;
+        if (end > start && in.get(end - 1) == '\r') end--;
+        line(in, start, end);
+        return true;
+    }
+
+    /**
+     * Dispatch one line.
+     * @param in the buffer
+     * @param start index of the first byte of the line
+     * @param end index after the last byte of the line
+     */
+    private void line(ByteBuffer in, int start, int end) {
+        cursor = start;
+        skipBlanks(in, end);
+        int cmd = cursor;
+        while (cursor < end && !isBlank(in.get(cursor))) {
+            cursor++;
+        }
+        int cmdEnd = cursor;
+        if (cmd == cmdEnd) return; //blank line
+        if (matches(in, cmd, cmdEnd, ERROR_BYTES)) {
+            skipBlanks(in, end);
+            handler.onError(text(in, cursor, end).trim());
+            return;
+        }
+        if (!parseArgs(in, end)) {
+            handler.onUnknown(text(in, start, end));
+            return;
+        }
+        if (matches(in, cmd, cmdEnd, MOLE_UP_BYTES) && argCount >= 1) {
+            handler.onMoleUp(args[0]);
+        } else if (matches(in, cmd, cmdEnd, MOLE_DOWN_BYTES) && argCount >= 1) {
+            handler.onMoleDown(args[0]);
+        } else if (matches(in, cmd, cmdEnd, SCORE_BYTES)) {
+            handler.onScore(args, argCount);
+        } else if (matches(in, cmd, cmdEnd, WHACK_BYTES) && argCount >= 2) {
+            handler.onWhack(args[0], args[1]);
+        } else if (matches(in, cmd, cmdEnd, PING_BYTES) && argCount >= 1) {
+            handler.onPing(args[0]);
+        } else if (matches(in, cmd, cmdEnd, PONG_BYTES) && argCount >= 1) {
+            handler.onPong(args[0]);
+        } else if (matches(in, cmd, cmdEnd, WELCOME_BYTES) && argCount >= 4) {
+            handler.onWelcome(args[0], args[1], args[2], args[3]);
+        } else if (matches(in, cmd, cmdEnd, BINARY_BYTES)) {
+            handler.onBinary();
+        } else if (matches(in, cmd, cmdEnd, GAME_WON_BYTES)) {
+            handler.onGameWon();
+        } else if (matches(in, cmd, cmdEnd, GAME_LOST_BYTES)) {
+            handler.onGameLost();
+        } else if (matches(in, cmd, cmdEnd, GAME_TIED_BYTES)) {
+            handler.onGameTied();
+        } else {
+            handler.onUnknown(text(in, start, end));
+        }
+    }
+
+    /**
+     * Decode one binary frame, if it is complete.
+     * @param in the buffer in read mode; its position is moved past the frame
+     * @return false if the frame is not complete yet
+     */
+    private boolean frame(ByteBuffer in) {
+        int limit = in.limit();
+        if (in.position() >= limit) return false;
+        cursor = in.position();
+        byte opcode = in.get(cursor++);
+        argCount = 0;
+        int length;
+        switch (opcode) {
+            case OP_WELCOME:
+                if (!varints(in, limit, 4)) return false;
+                in.position(cursor);
+                handler.onWelcome(args[0], args[1], args[2], args[3]);
+                return true;
+            case OP_MOLE_UP:
+                if (!varints(in, limit, 1)) return false;
+                in.position(cursor);
+                handler.onMoleUp(args[0]);
+                return true;
+            case OP_MOLE_DOWN:
+                if (!varints(in, limit, 1)) return false;
+                in.position(cursor);
+                handler.onMoleDown(args[0]);
+                return true;
+            case OP_WHACK:
+                if (!varints(in, limit, 2)) return false;
+                in.position(cursor);
+                handler.onWhack(args[0], args[1]);
+                return true;
+            case OP_SCORE:
+                if (!varints(in, limit, 1)) return false;
+                int count = args[0];
+                if (count < 0 || count > MAX_SCORES) break;
+                argCount = 0;
+                if (!varints(in, limit, count)) return false;
+                for (int i = 0; i < count; i++) {
+                    args[i] = (args[i] >>> 1) ^ -(args[i] & 1);
+                }
+                in.position(cursor);
+                handler.onScore(args, count);
+                return true;
+            case OP_GAME_WON:
+                in.position(cursor);
+                handler.onGameWon();
+                return true;
+            case OP_GAME_LOST:
+                in.position(cursor);
+                handler.onGameLost();
+                return true;
+            case OP_GAME_TIED:
+                in.position(cursor);
+                handler.onGameTied();
+                return true;
+            case OP_PING:
+                if (!varints(in, limit, 1)) return false;
+                in.position(cursor);
+                handler.onPing(args[0]);
+                return true;
+            case OP_PONG:
+                if (!varints(in, limit, 1)) return false;
+                in.position(cursor);
+                handler.onPong(args[0]);
+                return true;
+            case OP_ERROR:
+                if (!varints(in, limit, 1)) return false;
+                length = args[0];
+                if (length < 0 || length > in.capacity()) break;
+                if (limit - cursor < length) return false;
+                String message = text(in, cursor, cursor + length);
+                in.position(cursor + length);
+                handler.onError(message);
+                return true;
+            default:
+        }
+        //nothing can be read after a bad frame, so skip the whole buffer.
+        in.position(limit);
+        handler.onUnknown("opcode " + opcode);
+        return true;
+    }
+
+    /**
+     * Read varints into the arguments.
+     * @param in the buffer
+     * @param limit end of the bytes received
+     * @param count number of varints
+     * @return false if they have not all been received yet
+     */
+    private boolean varints(ByteBuffer in, int limit, int count) {
+        if (args.length < argCount + count) {
+            int[] bigger = new int[Math.max(args.length * 2, argCount + count)];
+            System.arraycopy(args, 0, bigger, 0, argCount);
+            args = bigger;
+        }
+        for (int n = 0; n < count; n++) {
+            int value = 0;
+            int shift = 0;
+            while (true) {
+                if (cursor >= limit) return false;
+                byte b = in.get(cursor++);
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) break;
+                shift += 7;
+                if (shift > 28) {
+                    //longer than an int: take it as is and let the handler judge.
+                    break;
+                }
+            }
+            args[argCount++] = value;
+        }
+        return true;
+    }
+
+    /**
+     * Parse the blank separated integers up to the end of the line.
+     * @param in the buffer
+     * @param end index after the last byte of the line
+     * @return false if an argument is not an integer
+     */
+    private boolean parseArgs(ByteBuffer in, int end) {
+        argCount = 0;
+        skipBlanks(in, end);
+        while (cursor < end) {
+            boolean negative = in.get(cursor) == '-';
+            if (negative) cursor++;
+            int first = cursor;
+            long value = 0;
+            while (cursor < end && !isBlank(in.get(cursor))) {
+                int digit = in.get(cursor) - '0';
+                if (digit < 0 || digit > 9) return false;
+                value = value * 10 + digit;
+                if (value > Integer.MAX_VALUE + 1L) return false;
+                cursor++;
+            }
+            if (cursor == first) return false;
+            if (negative) value = -value;
+            if (value > Integer.MAX_VALUE) return false;
+            if (argCount == args.length) {
+                int[] bigger = new int[args.length * 2];
+                System.arraycopy(args, 0, bigger, 0, argCount);
+                args = bigger;
+            }
+            args[argCount++] = (int) value;
+            skipBlanks(in, end);
+        }
+        return true;
+    }
+
+    /**
+     * Move the cursor past blanks.
+     * @param in the buffer
+     * @param end where to stop
+     */
+    private void skipBlanks(ByteBuffer in, int end) {
+        while (cursor < end && isBlank(in.get(cursor))) {
+            cursor++;
+        }
+    }
+
+    /**
+     * @param b a byte
+     * @return true for white space
+     */
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    /**
+     * @return true if the bytes from start to end are the command
+     */
+    private static boolean matches(ByteBuffer in, int start, int end, byte[] command) {
+        if (end - start != command.length) return false;
+        for (int i = 0; i < command.length; i++) {
+            if (in.get(start + i) != command[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the bytes from start to end as text
+     */
+    private static String text(ByteBuffer in, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = in.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,295 @@
+package common;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes {@link WAMProtocol} messages straight into a reusable byte buffer.
+ * Commands are kept as bytes and integer arguments are written digit by
+ * digit, so encoding a message creates no strings and boxes no integers.
+ * A binary encoder writes the same messages as {@link WAMBinary} frames.
+ * <br>
+ * Every thread gets its own encoders through {@link #local()} and
+ * {@link #local(boolean)}. The buffer a method returns is ready to be read
+ * and stays valid until the next message is encoded by the same encoder, so
+ * it has to be copied (e.g. into a connection's write buffer) right away.
+ *
+ * @author Daniel Cho
+ * @author Juan Patino
+ */
+public final class WAMEncoder implements WAMProtocol, WAMBinary {
+
+    /** text encoders of the threads */
+    private static final ThreadLocal<WAMEncoder> LOCAL = ThreadLocal.withInitial(() -> new WAMEncoder(false));
+
+    /** binary encoders of the threads */
+    private static final ThreadLocal<WAMEncoder> LOCAL_BINARY = ThreadLocal.withInitial(() -> new WAMEncoder(true));
+
+    private static final byte[] WELCOME_BYTES = WELCOME.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BINARY_BYTES = BINARY.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MOLE_UP_BYTES = MOLE_UP.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MOLE_DOWN_BYTES = MOLE_DOWN.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] WHACK_BYTES = WHACK.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SCORE_BYTES = SCORE.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] GAME_WON_BYTES = GAME_WON.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] GAME_LOST_BYTES = GAME_LOST.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] GAME_TIED_BYTES = GAME_TIED.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ERROR_BYTES = ERROR.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PING_BYTES = PING.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PONG_BYTES = PONG.getBytes(StandardCharsets.US_ASCII);
+
+    /** longest decimal int, with its sign and the separating blank */
+    private static final int INT_BYTES = 12;
+
+    /** true to write binary frames instead of text lines */
+    private final boolean binary;
+    /** the reusable buffer the messages are encoded into */
+    private ByteBuffer buffer = ByteBuffer.allocate(256);
+
+    /**
+     * @param binary true to write binary frames
+     */
+    private WAMEncoder(boolean binary) {
+        this.binary = binary;
+    }
+
+    /**
+     * @return the text encoder of the calling thread
+     */
+    public static WAMEncoder local() {
+        return LOCAL.get();
+    }
+
+    /**
+     * @param binary true for binary frames, false for text lines
+     * @return the encoder of the calling thread
+     */
+    public static WAMEncoder local(boolean binary) {
+        return binary ? LOCAL_BINARY.get() : LOCAL.get();
+    }
+
+    /**
+     * @return true if this encoder writes binary frames
+     */
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * @return WELCOME rows cols players player_number
+     */
+    public ByteBuffer welcome(int rows, int cols, int players, int player_number) {
+        begin(WELCOME_BYTES, OP_WELCOME, 4 * INT_BYTES);
+        putArg(rows);
+        putArg(cols);
+        putArg(players);
+        putArg(player_number);
+        return end();
+    }
+
+    /**
+     * The BINARY switch is always a text line, whatever this encoder writes.
+     * @return BINARY
+     */
+    public ByteBuffer binaryRequest() {
+        buffer.clear();
+        buffer.put(BINARY_BYTES);
+        buffer.put((byte) '\n');
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * @return MOLE_UP mole
+     */
+    public ByteBuffer moleUp(int mole) {
+        begin(MOLE_UP_BYTES, OP_MOLE_UP, INT_BYTES);
+        putArg(mole);
+        return end();
+    }
+
+    /**
+     * @return MOLE_DOWN mole
+     */
+    public ByteBuffer moleDown(int mole) {
+        begin(MOLE_DOWN_BYTES, OP_MOLE_DOWN, INT_BYTES);
+        putArg(mole);
+        return end();
+    }
+
+    /**
+     * @return WHACK mole player_number
+     */
+    public ByteBuffer whack(int mole, int player_number) {
+        begin(WHACK_BYTES, OP_WHACK, 2 * INT_BYTES);
+        putArg(mole);
+        putArg(player_number);
+        return end();
+    }
+
+    /**
+     * @param scores the scores in order of the players' numbers
+     * @param count number of players
+     * @return SCORE followed by every score
+     */
+    public ByteBuffer score(int[] scores, int count) {
+        begin(SCORE_BYTES, OP_SCORE, (count + 1) * INT_BYTES);
+        if (binary) {
+            putVarint(buffer, count);
+            for (int i = 0; i < count; i++) {
+                putVarint(buffer, (scores[i] << 1) ^ (scores[i] >> 31));
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                putArg(scores[i]);
+            }
+        }
+        return end();
+    }
+
+    /**
+     * @return GAME_WON
+     */
+    public ByteBuffer gameWon() {
+        begin(GAME_WON_BYTES, OP_GAME_WON, 0);
+        return end();
+    }
+
+    /**
+     * @return GAME_LOST
+     */
+    public ByteBuffer gameLost() {
+        begin(GAME_LOST_BYTES, OP_GAME_LOST, 0);
+        return end();
+    }
+
+    /**
+     * @return GAME_TIED
+     */
+    public ByteBuffer gameTied() {
+        begin(GAME_TIED_BYTES, OP_GAME_TIED, 0);
+        return end();
+    }
+
+    /**
+     * @return PING id
+     */
+    public ByteBuffer ping(int id) {
+        begin(PING_BYTES, OP_PING, INT_BYTES);
+        putArg(id);
+        return end();
+    }
+
+    /**
+     * @return PONG id
+     */
+    public ByteBuffer pong(int id) {
+        begin(PONG_BYTES, OP_PONG, INT_BYTES);
+        putArg(id);
+        return end();
+    }
+
+    /**
+     * @param message the message to display, non-ASCII characters become '?'
+     * @return ERROR message
+     */
+    public ByteBuffer error(String message) {
+        String text = message == null ? "" : message;
+        begin(ERROR_BYTES, OP_ERROR, text.length() + INT_BYTES);
+        if (binary) {
+            putVarint(buffer, text.length());
+        } else {
+            buffer.put((byte) ' ');
+        }
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            buffer.put(c < 0x80 && c != '\n' && c != '\r' ? (byte) c : (byte) '?');
+        }
+        return end();
+    }
+
+    /**
+     * Start a message.
+     * @param command the command bytes of a text line
+     * @param opcode the opcode of a binary frame
+     * @param args room needed for the arguments
+     */
+    private void begin(byte[] command, byte opcode, int args) {
+        int needed = command.length + args + 1;
+        if (buffer.capacity() < needed) {
+            buffer = ByteBuffer.allocate(Math.max(needed, buffer.capacity() * 2));
+        }
+        buffer.clear();
+        if (binary) {
+            buffer.put(opcode);
+        } else {
+            buffer.put(command);
+        }
+    }
+
+    /**
+     * Finish a message, with its line terminator if it is text.
+     * @return the message, ready to be read
+     */
+    private ByteBuffer end() {
+        if (!binary) {
+            buffer.put((byte) '\n');
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Write an argument: a blank and an integer in decimal, or a varint.
+     * @param value the integer
+     */
+    private void putArg(int value) {
+        if (binary) {
+            putVarint(buffer, value);
+        } else {
+            buffer.put((byte) ' ');
+            putInt(buffer, value);
+        }
+    }
+
+    /**
+     * Write an int as an unsigned varint of at most five bytes.
+     * @param buffer where to write
+     * @param value the integer
+     */
+    public static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Write an integer in decimal ASCII without creating a string.
+     * @param buffer where to write
+     * @param value the integer
+     */
+    public static void putInt(ByteBuffer buffer, int value) {
+        if (value == Integer.MIN_VALUE) {
+            for (int i = 0; i < 11; i++) {
+                buffer.put((byte) "-2147483648".charAt(i));
+            }
+            return;
+        }
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        int digits = 1;
+        for (int v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        int end = buffer.position() + digits;
+        for (int i = end - 1; i >= buffer.position(); i--) {
+            buffer.put(i, (byte) ('0' + value % 10));
+            value /= 10;
+        }
+        buffer.position(end);
+    }
+}
@@ -35,6 +35,16 @@ public interface WAMProtocol {
      */
     public static final String WELCOME = "WELCOME";
 
+    /**
+     * From client, in answer to WELCOME: asks to switch to the binary
+     * framing described in {@link WAMBinary}. The client sends binary frames
+     * right after this line.<br>
+     * From whack.server, in answer to the client's request: every message
+     * after this line is a binary frame.<br>
+     *     No arguments.
+     */
+    public static final String BINARY = "BINARY";
+
     /**
      * From whack.server: inform client that a mole has popped up.<br>
      *     One argument: the mole number
@@ -85,6 +95,22 @@ public interface WAMProtocol {
      */
     public static final String GAME_TIED = "GAME_TIED";
 
+    /**
+     * From whack.server: asks the client to answer right away with a PONG
+     * carrying the same number, so the server can time the round trip.
+     * The server uses it to judge whacks against the moles as the client
+     * saw them. Only sent to clients that asked for {@link #BINARY}, so
+     * text clients that predate it are never sent one.<br>
+     *     One argument: a number to echo
+     */
+    public static final String PING = "PING";
+
+    /**
+     * From client: the answer to a PING.<br>
+     *     One argument: the number of the PING
+     */
+    public static final String PONG = "PONG";
+
     /**
      * Request sent from the whack.server to the client when any kind of error has
      * resulted from a bad client response. No response is expected from the
@@ -0,0 +1,66 @@
+package server;
+
+/**
+ * An event in the schedule of a {@link WAMGame}. Timed events are handed to
+ * the game by its {@link WAMScheduler} timer when they are due, and whacks
+ * read by the I/O threads right away, so the game thread only wakes up
+ * when there is something to do.
+ *
+ * @author Daniel Cho
+ * @author Juan Patino
+ */
+class MoleEvent {
+
+    /** Kinds of events */
+    enum Type {
+        /** a mole pops up */
+        UP,
+        /** a mole drops down */
+        DOWN,
+        /** a player whacked a mole */
+        WHACK,
+        /** scores held back by the broadcast interval may be sent */
+        SCORE,
+        /** time to measure the players' round trip times again */
+        PING,
+        /** the game duration is over */
+        END
+    }
+
+    /** what happens */
+    final Type type;
+    /** the mole number the event applies to, -1 if none */
+    final int mole;
+    /** the {@link System#nanoTime()} at which the event is due */
+    final long deadline;
+    /** the player who whacked, null for timed events */
+    final WAMPlayer player;
+    /** round trip time to the player when the whack was received */
+    final long rtt;
+
+    /**
+     * Create a new event.
+     * @param type the kind of event
+     * @param mole the mole number
+     * @param deadline the nano time at which the event is due
+     */
+    MoleEvent(Type type, int mole, long deadline) {
+        this(type, mole, deadline, null, 0);
+    }
+
+    /**
+     * Create a new event caused by a player.
+     * @param type the kind of event
+     * @param mole the mole number
+     * @param deadline the nano time at which the event is due
+     * @param player the player
+     * @param rtt round trip time to the player in nanoseconds
+     */
+    MoleEvent(Type type, int mole, long deadline, WAMPlayer player, long rtt) {
+        this.type = type;
+        this.mole = mole;
+        this.deadline = deadline;
+        this.player = player;
+        this.rtt = rtt;
+    }
+}
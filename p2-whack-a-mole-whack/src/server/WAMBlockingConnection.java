@@ -0,0 +1,156 @@
+package server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A client channel in blocking mode with a reader thread of its own, for
+ * the thread-per-connection modes of the {@link WAMServer}. Reading blocks
+ * that thread only; written messages collect in a buffer that a writer
+ * thread, started on the first flush, writes out. A client that does not
+ * read blocks its writer, never the game that flushes.
+ * Reading and writing a blocking channel do not wait on each other, so the
+ * game can send while the reader is blocked.
+ *
+ * @author Daniel Cho
+ * @author Juan Patino
+ */
+public class WAMBlockingConnection extends WAMConnection implements Runnable {
+
+    /** the channel to the client */
+    private final SocketChannel channel;
+    /** bytes received and not yet decoded */
+    private final ByteBuffer in = ByteBuffer.allocate(MAX_LINE);
+    /** makes the writer thread */
+    private final ThreadFactory writers;
+    /** the thread writing the output, null until the first flush; guarded by this */
+    private Thread writer;
+    /** the output being written by the writer thread, swapped with the write buffer */
+    private ByteBuffer sending = ByteBuffer.allocate(WRITE_SIZE);
+
+    /**
+     * Create a connection.
+     * @param channel the accepted channel, in blocking mode
+     * @param metrics the metrics of the server
+     * @param writers makes the thread that writes to the client
+     */
+    WAMBlockingConnection(SocketChannel channel, WAMMetrics metrics, ThreadFactory writers) {
+        super(metrics);
+        this.channel = channel;
+        this.writers = writers;
+    }
+
+    /**
+     * Hand the buffered output to the writer thread.
+     */
+    @Override
+    public void flush() {
+        synchronized (this) {
+            if (isClosed() || out.position() == 0) return;
+            wakeWriter();
+        }
+    }
+
+    /**
+     * Close the connection once the output written so far has been sent.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closing || isClosed()) return;
+            closing = true;
+            if (writer != null || out.position() > 0) {
+                wakeWriter();
+                return;
+            }
+        }
+        closeNow();
+    }
+
+    /**
+     * Read and decode messages until the client goes away. This is the body
+     * of the reader thread.
+     */
+    @Override
+    public void run() {
+        try {
+            while (!isClosed()) {
+                if (channel.read(in) < 0) break;
+                received(in);
+            }
+        } catch (IOException e) {
+            // the client is gone, or the connection was closed under us
+        }
+        closeNow();
+    }
+
+    @Override
+    public String toString() {
+        try {
+            return "WAMConnection" + channel.getRemoteAddress();
+        } catch (IOException e) {
+            return "WAMConnection[closed]";
+        }
+    }
+
+    /**
+     * Start the writer thread, or wake it up. Called holding the lock.
+     */
+    private void wakeWriter() {
+        if (writer == null) {
+            writer = writers.newThread(this::drain);
+            writer.start();
+        } else {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Write the output, and the held back message once the rest is gone,
+     * until the connection closes. This is the body of the writer thread.
+     * While it writes, the client is behind.
+     */
+    private void drain() {
+        try {
+            while (true) {
+                synchronized (this) {
+                    behind = false;
+                    while (!isClosed() && !closing && out.position() == 0 && !takeLatest()) {
+                        wait();
+                    }
+                    if (isClosed() || out.position() == 0 && !takeLatest()) break;
+                    ByteBuffer batch = out;
+                    out = sending;
+                    sending = batch;
+                    behind = true;
+                }
+                sending.flip();
+                while (sending.hasRemaining()) {
+                    metrics.written(channel.write(sending));
+                }
+                sending.clear();
+            }
+        } catch (IOException e) {
+            if (!isClosed()) metrics.writeFailed();
+            metrics.written(sending.remaining());
+            sending.clear();
+        } catch (InterruptedException e) {
+            // closing anyway
+        }
+        closeNow();
+    }
+
+    @Override
+    void disconnect() {
+        synchronized (this) {
+            notifyAll();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // squash
+        }
+    }
+}
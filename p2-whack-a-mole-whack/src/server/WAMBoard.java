@@ -0,0 +1,178 @@
+package server;
+
+import java.util.Arrays;
+
+/**
+ * The holes of a game board as bitmaps. Holes are numbered in row-major
+ * order like the mole numbers of {@link common.WAMProtocol}. One bitmap
+ * tells which moles are up and one per player tells which of those the
+ * player already whacked, so every check is a single bit test and nothing
+ * is allocated while the game runs.
+ * <br>
+ * Every hole also keeps the {@link System#nanoTime()} window of its mole:
+ * when it popped up and, once it dropped, the window that ended last. A
+ * whack can then be judged against the board as it was at some earlier
+ * time, when the client saw it.
+ *
+ * @author Daniel Cho
+ * @author Juan Patino
+ */
+public class WAMBoard {
+
+    /** the whack missed */
+    public static final int MISS = 0;
+    /** the whack hit a mole that is up */
+    public static final int HIT = 1;
+    /** the whack hit a mole that dropped since the client saw it up */
+    public static final int LATE_HIT = 2;
+
+    /** number of holes */
+    private final int size;
+    /** one bit per hole, set while its mole is up */
+    private final long[] up;
+    /** per player, one bit per hole, set once the player whacked that mole */
+    private final long[][] whacked;
+    /** per player, one bit per hole, set if the player whacked the last window that ended */
+    private final long[][] whackedLast;
+    /** one bit per hole, set once a window of its mole ended */
+    private final long[] ended;
+    /** per hole, nano time the mole last popped up */
+    private final long[] upAt;
+    /** per hole, nano time the last window that ended had started */
+    private final long[] lastUpAt;
+    /** per hole, nano time the mole last dropped */
+    private final long[] downAt;
+
+    /**
+     * Create an empty board.
+     * @param rows number of rows
+     * @param cols number of columns
+     * @param players number of players
+     */
+    public WAMBoard(int rows, int cols, int players) {
+        this.size = rows * cols;
+        int words = (size + 63) >>> 6;
+        this.up = new long[words];
+        this.whacked = new long[players][words];
+        this.whackedLast = new long[players][words];
+        this.ended = new long[words];
+        this.upAt = new long[size];
+        this.lastUpAt = new long[size];
+        this.downAt = new long[size];
+    }
+
+    /**
+     * @return number of holes
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Pop a mole up.
+     * @param mole the mole number
+     * @param now the nano time
+     * @return false if it was up already
+     */
+    public boolean up(int mole, long now) {
+        int w = mole >>> 6;
+        long bit = 1L << mole;
+        if ((up[w] & bit) != 0) return false;
+        up[w] |= bit;
+        upAt[mole] = now;
+        return true;
+    }
+
+    /**
+     * Drop a mole down. Who whacked it is kept with its window, until the
+     * next window of the mole ends.
+     * @param mole the mole number
+     * @param now the nano time
+     * @return false if it was down already
+     */
+    public boolean down(int mole, long now) {
+        int w = mole >>> 6;
+        long bit = 1L << mole;
+        if ((up[w] & bit) == 0) return false;
+        up[w] &= ~bit;
+        ended[w] |= bit;
+        lastUpAt[mole] = upAt[mole];
+        downAt[mole] = now;
+        for (int p = 0; p < whacked.length; p++) {
+            whackedLast[p][w] = (whackedLast[p][w] & ~bit) | (whacked[p][w] & bit);
+            whacked[p][w] &= ~bit;
+        }
+        return true;
+    }
+
+    /**
+     * A player whacks a hole as the board was at some time. The whack
+     * hits the mole that is up if it was up by then, or else the window
+     * that ended last if the time falls in it. A player hits a window once.
+     * @param player the player number
+     * @param mole the mole number
+     * @param seen nano time of the board the player saw
+     * @param slack nanoseconds a window is stretched by at both ends
+     * @return {@link #HIT}, {@link #LATE_HIT} or {@link #MISS}
+     */
+    public int whack(int player, int mole, long seen, long slack) {
+        if (mole < 0 || mole >= size || player < 0 || player >= whacked.length) return MISS;
+        int w = mole >>> 6;
+        long bit = 1L << mole;
+        if ((up[w] & bit) != 0 && seen - upAt[mole] >= -slack) {
+            if ((whacked[player][w] & bit) != 0) return MISS;
+            whacked[player][w] |= bit;
+            return HIT;
+        }
+        if ((ended[w] & bit) == 0 || (whackedLast[player][w] & bit) != 0
+                || seen - lastUpAt[mole] < -slack || seen - downAt[mole] >= slack) {
+            return MISS;
+        }
+        whackedLast[player][w] |= bit;
+        return LATE_HIT;
+    }
+
+    /**
+     * @param player the player number
+     * @param mole the mole number
+     * @return true if the player whacked the mole while it is up
+     */
+    public boolean hasWhacked(int player, int mole) {
+        return (whacked[player][mole >>> 6] & (1L << mole)) != 0;
+    }
+
+    /**
+     * Find a hole whose mole is down, starting at a given hole and wrapping
+     * around the board.
+     * @param from the hole to start at
+     * @return the mole number, -1 if every mole is up
+     */
+    public int nextDown(int from) {
+        int w = from >>> 6;
+        long free = ~up[w] & (-1L << from);
+        for (int i = 0; i <= up.length; i++) {
+            if (free != 0) {
+                int mole = (w << 6) + Long.numberOfTrailingZeros(free);
+                if (mole < size) return mole;
+                free = 0;
+            }
+            w = (w + 1) % up.length;
+            free = ~up[w];
+        }
+        return -1;
+    }
+
+    /**
+     * Drop every mole.
+     */
+    public void clear() {
+        Arrays.fill(up, 0L);
+        Arrays.fill(ended, 0L);
+        for (long[] mine : whacked) {
+            Arrays.fill(mine, 0L);
+        }
+        for (long[] mine : whackedLast) {
+            Arrays.fill(mine, 0L);
+        }
+    }
+}
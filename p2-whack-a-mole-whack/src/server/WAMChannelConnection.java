@@ -0,0 +1,168 @@
+package server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A client channel multiplexed by a {@link WAMReactor}. Each connection
+ * owns its read and write buffers; outgoing messages are copied into the
+ * write buffer from any thread. A flush writes the buffer to the channel
+ * right away, on the flushing thread; only what the socket does not take
+ * is left for the I/O thread, which writes it once the channel is writable.
+ * Until it has, the client is behind and further flushes leave the output
+ * to the I/O thread.
+ *
+ * @author Daniel Cho
+ * @author Juan Patino
+ */
+public class WAMChannelConnection extends WAMConnection {
+
+    /** the channel to the client */
+    private final SocketChannel channel;
+    /** the reactor whose thread does the I/O of this connection */
+    private final WAMReactor reactor;
+    /** bytes received and not yet decoded */
+    private final ByteBuffer in = ByteBuffer.allocate(MAX_LINE);
+    /** key of the channel in the reactor's selector */
+    private SelectionKey key;
+
+    /**
+     * Create a connection.
+     * @param channel the accepted channel, already non-blocking
+     * @param reactor the reactor that will serve it
+     * @param metrics the metrics of the server
+     */
+    WAMChannelConnection(SocketChannel channel, WAMReactor reactor, WAMMetrics metrics) {
+        super(metrics);
+        this.channel = channel;
+        this.reactor = reactor;
+    }
+
+    /**
+     * Write the buffered output to the channel. What the socket does not
+     * take now is handed to the I/O thread.
+     */
+    @Override
+    public void flush() {
+        boolean rest;
+        synchronized (this) {
+            if (closing || isClosed() || behind || out.position() == 0) return;
+            try {
+                writeOut();
+            } catch (IOException e) {
+                //the I/O thread closes the connection and tells the listener.
+                metrics.writeFailed();
+                metrics.written(out.remaining());
+                out.clear();
+                closing = true;
+            }
+            rest = out.position() > 0 || closing;
+            behind = rest;
+        }
+        if (rest) reactor.requestWrite(this);
+    }
+
+    /**
+     * Close the connection after everything queued so far has been sent.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closing || isClosed()) return;
+            closing = true;
+            behind = true;
+        }
+        reactor.requestWrite(this);
+    }
+
+    @Override
+    public String toString() {
+        try {
+            return "WAMConnection" + channel.getRemoteAddress();
+        } catch (IOException e) {
+            return "WAMConnection[closed]";
+        }
+    }
+
+    /**
+     * @return the channel to the client
+     */
+    SocketChannel channel() {
+        return channel;
+    }
+
+    /**
+     * Called by the reactor once the channel is registered.
+     * @param key the selection key
+     */
+    void registered(SelectionKey key) {
+        this.key = key;
+    }
+
+    /**
+     * Read what is available and decode the complete messages.
+     * Called on the I/O thread when the channel is readable.
+     * @throws IOException if reading fails
+     */
+    void read() throws IOException {
+        int n = channel.read(in);
+        if (n < 0) {
+            closeNow();
+            return;
+        }
+        received(in);
+    }
+
+    /**
+     * Write as much of the pending output as the channel accepts, then the
+     * held back message once the rest is gone, and close the connection if
+     * that fails or if it is closing and done. Called on the I/O thread.
+     */
+    void writePending() {
+        boolean done;
+        boolean finished;
+        synchronized (this) {
+            if (isClosed()) return;
+            try {
+                writeOut();
+                if (out.position() == 0 && takeLatest()) {
+                    writeOut();
+                }
+            } catch (IOException e) {
+                metrics.writeFailed();
+                metrics.written(out.remaining());
+                out.clear();
+                closing = true;
+            }
+            done = out.position() == 0;
+            finished = done && closing;
+            behind = !done;
+        }
+        if (finished) {
+            closeNow();
+        } else if (key.isValid()) {
+            key.interestOps(done ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Write what the channel takes of the output. Called holding the lock.
+     * @throws IOException if writing fails, the output is left in read mode
+     */
+    private void writeOut() throws IOException {
+        out.flip();
+        metrics.written(channel.write(out));
+        out.compact();
+    }
+
+    @Override
+    void disconnect() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // squash
+        }
+    }
+}
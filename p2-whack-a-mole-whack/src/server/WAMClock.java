@@ -0,0 +1,29 @@
+package server;
+
+import java.util.concurrent.Future;
+
+/**
+ * Where a {@link WAMGame} gets the time and its timers from. A game on a
+ * server runs on the {@link WAMScheduler} and {@link System#nanoTime()};
+ * a {@link WAMReplay} sets the time from a log and decides itself when
+ * each timer goes off, so the game runs as fast as it can.
+ *
+ * @author Daniel Cho
+ * @author Juan Patino
+ */
+interface WAMClock {
+
+    /**
+     * @return the current nano time
+     */
+    long nanoTime();
+
+    /**
+     * Hand an event to a game once a delay is over.
+     * @param event the event
+     * @param nanos the delay in nanoseconds
+     * @param game the game that gets the event
+     * @return the timer, which can be cancelled
+     */
+    Future<?> schedule(MoleEvent event, long nanos, WAMGame game);
+}
@@ -0,0 +1,291 @@
+package server;
+
+import common.WAMDecoder;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+
+/**
+ * One client connection of the server. Incoming bytes are decoded in place
+ * by a {@link WAMDecoder} and handed to the {@link Listener}; outgoing
+ * messages may be sent from any thread. Messages that are only written
+ * collect in a buffer until the next flush, so a game tick that produces
+ * several messages for a client costs one socket write. How the bytes move is up to the
+ * subclass: a {@link WAMChannelConnection} is multiplexed by a
+ * {@link WAMReactor}, a {@link WAMBlockingConnection} has a reader thread of
+ * its own.
+ * <p>
+ * The buffer is bounded. A client that reads slower than the game writes
+ * falls behind, and once more than the queue limit is waiting it is
+ * disconnected, so it costs a bounded amount of memory and never holds up
+ * the game.
+ *
+ * @author Daniel Cho
+ * @author Juan Patino
+ */
+public abstract class WAMConnection implements Closeable {
+
+    /** Longest line a client may send before it is disconnected */
+    static final int MAX_LINE = 1024;
+
+    /** Bytes that may wait on a connection by default before its client is disconnected */
+    public static final int MAX_QUEUE = 64 * 1024;
+
+    /** Initial size of the write buffer, it grows up to the queue limit */
+    static final int WRITE_SIZE = 1024;
+
+    /**
+     * What to do about a client that does not read as fast as the game
+     * writes to it. Either way it is disconnected once the queue limit is
+     * reached.
+     */
+    public enum SlowConsumer {
+        /** queue every message */
+        DISCONNECT,
+        /** while the client is behind, keep only the latest SCORE */
+        LATEST_SCORE
+    }
+
+    /**
+     * Receives what a client sends. The message methods of the
+     * {@link WAMDecoder.Handler} are called on the thread reading the connection.
+     */
+    public interface Listener extends WAMDecoder.Handler {
+        /**
+         * Called on the reading thread once the connection is closed.
+         * @param connection the closed connection
+         */
+        void onClose(WAMConnection connection);
+    }
+
+    /** counts the messages and the connection */
+    final WAMMetrics metrics;
+    /** decodes the received messages, null until there is a listener */
+    private volatile WAMDecoder decoder;
+    /** who gets the lines */
+    private volatile Listener listener;
+    /** true once the connection is closed */
+    private volatile boolean closed;
+    /** most bytes that may wait to be sent */
+    private volatile int maxQueue = MAX_QUEUE;
+    /** how a client that falls behind is treated */
+    private volatile SlowConsumer slowConsumer = SlowConsumer.LATEST_SCORE;
+    /** bytes written and not yet handed to the socket, in fill mode; guarded by this */
+    ByteBuffer out = ByteBuffer.allocate(WRITE_SIZE);
+    /** the latest message held back while the client is behind, in fill mode, empty if none; guarded by this */
+    private ByteBuffer latest = ByteBuffer.allocate(64);
+    /** true while the socket has not taken everything flushed so far; guarded by this */
+    boolean behind;
+    /** true once no more messages are accepted; guarded by this */
+    boolean closing;
+
+    /**
+     * Create a connection counted in the default metrics.
+     */
+    WAMConnection() {
+        this(WAMMetrics.getDefault());
+    }
+
+    /**
+     * Create a connection.
+     * @param metrics the metrics of the server
+     */
+    WAMConnection(WAMMetrics metrics) {
+        this.metrics = metrics;
+        metrics.connectionOpened();
+    }
+
+    /**
+     * Set who receives the lines sent by the client.
+     * @param listener the listener
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+        this.decoder = new WAMDecoder(listener);
+    }
+
+    /**
+     * Switch the decoding of what the client sends between text lines and
+     * binary frames. Called on the reading thread, from a listener method.
+     * @param binary true for binary frames
+     */
+    public void setBinary(boolean binary) {
+        WAMDecoder d = decoder;
+        if (d != null) d.setBinary(binary);
+    }
+
+    /**
+     * Set how much output may wait for the client and what happens to a
+     * client that falls behind.
+     * @param maxQueue most bytes that may wait to be sent
+     * @param slowConsumer how a client that falls behind is treated
+     */
+    public void setSlowConsumer(int maxQueue, SlowConsumer slowConsumer) {
+        this.maxQueue = maxQueue;
+        this.slowConsumer = slowConsumer;
+    }
+
+    /**
+     * Add a message to the output without sending it yet. May be called
+     * from any thread. The bytes are copied, so the frame can be reused
+     * right after.
+     * @param frame the encoded message with its line terminator, in read
+     *              mode; its position is not changed
+     */
+    public void write(ByteBuffer frame) {
+        queue(frame, false);
+    }
+
+    /**
+     * Add a message that makes the earlier ones like it worthless, like a
+     * SCORE, to the output. While the client is behind only the latest of
+     * them waits, and it goes out once the client has caught up.
+     * @param frame the encoded message with its line terminator, in read
+     *              mode; its position is not changed
+     */
+    public void writeLatest(ByteBuffer frame) {
+        queue(frame, true);
+    }
+
+    /**
+     * Copy a message into the output, or into the held back message, or
+     * disconnect the client if there is no more room for it.
+     */
+    private void queue(ByteBuffer frame, boolean replaces) {
+        int length = frame.remaining();
+        int depth;
+        boolean held = false;
+        boolean dropped = false;
+        boolean full = false;
+        synchronized (this) {
+            if (closing || closed) return;
+            if (replaces && behind && slowConsumer == SlowConsumer.LATEST_SCORE) {
+                dropped = latest.position() > 0;
+                latest.clear();
+                latest = room(latest, length);
+                latest.put(frame.duplicate());
+                held = true;
+            } else if (out.position() + length > maxQueue) {
+                closing = true;
+                full = true;
+            } else {
+                out = room(out, length);
+                out.put(frame.duplicate());
+            }
+            depth = out.position();
+        }
+        if (full) {
+            metrics.slowConsumer();
+            closeNow();
+            return;
+        }
+        metrics.messageOut();
+        if (dropped) metrics.messageDropped();
+        if (!held) metrics.queued(length, depth);
+    }
+
+    /**
+     * Move the held back message to the output once the rest has been
+     * sent. Called holding the lock.
+     * @return true if there was one
+     */
+    boolean takeLatest() {
+        if (latest.position() == 0) return false;
+        latest.flip();
+        int length = latest.remaining();
+        out = room(out, length);
+        out.put(latest);
+        latest.clear();
+        metrics.queued(length, out.position());
+        return true;
+    }
+
+    /**
+     * Make room in a buffer, growing it if needed.
+     * @param buffer a buffer in fill mode
+     * @param needed number of bytes about to be put
+     * @return the buffer, or a bigger one holding the same bytes
+     */
+    private static ByteBuffer room(ByteBuffer buffer, int needed) {
+        if (buffer.remaining() >= needed) return buffer;
+        int size = buffer.capacity();
+        while (size - buffer.position() < needed) {
+            size *= 2;
+        }
+        ByteBuffer bigger = ByteBuffer.allocate(size);
+        buffer.flip();
+        bigger.put(buffer);
+        return bigger;
+    }
+
+    /**
+     * Send everything written so far.
+     */
+    public abstract void flush();
+
+    /**
+     * Write a message and send it right away.
+     * @param frame the encoded message with its line terminator, in read
+     *              mode; its position is not changed
+     */
+    public void send(ByteBuffer frame) {
+        write(frame);
+        flush();
+    }
+
+    /**
+     * Close the connection after everything written so far has gone out.
+     */
+    @Override
+    public abstract void close();
+
+    /**
+     * @return true if the connection has been closed
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Decode the complete messages received so far and compact the buffer.
+     * The connection is closed if the buffer fills up with one message,
+     * a line longer than that is not part of the protocol.
+     * @param in the received bytes, in fill mode
+     */
+    void received(ByteBuffer in) {
+        in.flip();
+        WAMDecoder d = decoder;
+        if (d != null) {
+            metrics.messagesIn(d.decode(in));
+        } else {
+            in.position(in.limit());
+        }
+        in.compact();
+        if (!in.hasRemaining()) {
+            closeNow();
+        }
+    }
+
+    /**
+     * Close the connection right away and tell the listener.
+     */
+    void closeNow() {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            closing = true;
+            metrics.written(out.position());
+            out.clear();
+            latest.clear();
+        }
+        disconnect();
+        metrics.connectionClosed();
+        Listener l = listener;
+        if (l != null) l.onClose(this);
+    }
+
+    /**
+     * Release the underlying socket. Called once, by {@link #closeNow()}.
+     */
+    abstract void disconnect();
+}
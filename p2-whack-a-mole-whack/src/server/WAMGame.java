@@ -2,10 +2,32 @@ package server;
 
 import client.Model;
 import java.util.ArrayList;
-import java.util.Random;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Whack a mole game. An instance of this will be created by the server.
+ * Several moles can be up at once; each one cycles on its own between its
+ * up time and its down time, popping up at a random hole that is free.
+ * The mole timers run on the server's shared {@link WAMScheduler}; the
+ * game thread sleeps until a timer or a whack hands it an event.
+ * <br>
+ * Every player that switched to binary frames is pinged once a second;
+ * older clients would not understand a PING, so they are never sent one.
+ * A whack is judged against the board as it was one round trip before
+ * the whack was received, which is what the client saw when it whacked,
+ * give or take the tolerance. The round trip of a player that is not
+ * pinged counts as 0.
+ * <br>
+ * Where and when the moles pop up comes from one random generator seeded
+ * per game, so a game can be played again from its seed. The game reads
+ * the time and sets its timers through a {@link WAMClock}, and may write
+ * what it does to a {@link WAMGameLog}, which a {@link WAMReplay} plays
+ * back through the same code.
  *
  * @author Daniel Cho
  * @author Juan Patino
@@ -13,6 +35,15 @@ import java.util.Random;
 public class WAMGame
         implements  Runnable {
 
+    /** Default milliseconds a mole's window is stretched by when judging whacks */
+    public static final int TOLERANCE = 100;
+
+    /** Most nanoseconds a whack is judged back in time, however slow the client */
+    private static final long MAX_REWIND = TimeUnit.MILLISECONDS.toNanos(500);
+
+    /** Milliseconds between two pings of the players */
+    private static final int PING_INTERVAL = 1000;
+
     private ArrayList<WAMPlayer> players;
 
     private Model game;
@@ -20,121 +51,337 @@ public class WAMGame
     private int cols;
     private int game_time;
     private int playerAmt;
-    private WAMPlayer player_1, player_2, player_3;
-    private ArrayList<Integer> scoreList;
+    private WAMScores scores;
+    /** events that are due and waiting for the game thread */
+    private final LinkedBlockingQueue<MoleEvent> events = new LinkedBlockingQueue<>();
+    /** tells the time and runs the timers of the game */
+    private WAMClock clock;
+    /** nano time of the event being handled; game thread only */
+    private long now;
+    /** timers of the game that may still be pending; game thread only */
+    private final ArrayList<Future<?>> timers = new ArrayList<>();
+    /** set once the game is over, so late timers are dropped */
+    private volatile boolean over;
+    /** which moles are up and who whacked them */
+    private WAMBoard board;
+    /** number of moles cycling at the same time */
+    private int moles;
+    /** sends the changed scores once per tick */
+    private WAMScoreBroadcaster broadcaster;
+    /** nano time of the pending SCORE event, 0 if none */
+    private long scoreDue;
+    /** records how late the timers are and how long whacks wait for their SCORE */
+    private WAMMetrics metrics;
+    /** nano times the whacks that scored since the last SCORE were received */
+    private long[] whackTimes = new long[8];
+    /** number of whack times kept */
+    private int whacks;
+    /** nanoseconds a mole's window is stretched by when judging whacks */
+    private long tolerance;
+    /** the seed of the random generator */
+    private final long seed;
+    /** picks the holes and the up and down times; game thread only */
+    private final SplittableRandom random;
+    /** least milliseconds between two SCORE broadcasts */
+    private int score_interval;
+    /** where what the game does is logged, null if it is not */
+    private WAMGameLog log;
+
+    /**
+     * How a game is played, besides its board and length. A new one has
+     * the defaults: one mole, a SCORE every tick, the default tolerance, a
+     * random seed, and the shared scheduler and metrics.
+     */
+    static class Settings {
+        /** number of moles that may be up at the same time */
+        int moles = 1;
+        /** least milliseconds between two SCORE broadcasts, 0 to broadcast once per tick */
+        int score_interval = 0;
+        /** milliseconds a mole's window is stretched by at both ends when judging whacks */
+        int tolerance = TOLERANCE;
+        /** seed of the random generator; the same seed pops the same moles at the same times */
+        long seed = ThreadLocalRandom.current().nextLong();
+        /** tells the time and runs the timers of the game, null for the default scheduler */
+        WAMClock clock;
+        /** the metrics of the server, null for the default metrics */
+        WAMMetrics metrics;
+    }
 
     /**
      * @param players ArrayList containing player objects.
+     * @param settings how the game is played; read once, so it may be
+     *                 changed for the next game
      */
-    public WAMGame(ArrayList<WAMPlayer> players, ArrayList<Integer> scoreList, int rows, int cols, int game_time) {
+    WAMGame(ArrayList<WAMPlayer> players, WAMScores scores, int rows, int cols, int game_time, Settings settings) {
 
         this.players = players;
         this.rows = rows;
         this.cols = cols;
         this.game_time = game_time;
-        this.scoreList = scoreList;
+        this.scores = scores;
         //number of players size
         this.playerAmt = players.size();
+        this.board = new WAMBoard(rows, cols, playerAmt);
+        this.moles = Math.max(1, Math.min(settings.moles, rows * cols));
+        this.broadcaster = new WAMScoreBroadcaster(players, scores, settings.score_interval);
+        this.score_interval = settings.score_interval;
+        this.clock = settings.clock != null ? settings.clock : WAMScheduler.getDefault();
+        this.metrics = settings.metrics != null ? settings.metrics : WAMMetrics.getDefault();
+        this.tolerance = TimeUnit.MILLISECONDS.toNanos(settings.tolerance);
+        this.seed = settings.seed;
+        this.random = new SplittableRandom(seed);
+        for (int i = 0; i < playerAmt; i++) {
+            players.get(i).setGame(this);
+        }
 
         game = new Model();
 
     }
 
+    /**
+     * @param log where to log what the game does, null for nowhere; set
+     *            before the game runs
+     */
+    void setLog(WAMGameLog log) {
+        this.log = log;
+    }
+
     @Override
     public void run() {
         boolean go = true;
 
-        //start the clock.
-        double start = System.currentTimeMillis();
-        //while the game duration time
+        begin();
         while (go) {
             try {
-                go = getElapsedTime(start); //changes the boolean type of go to true or false depending on the elapsed time.
-                makeWhack(players);
+                //one tick: sleep until an event is due, then handle every
+                //event that is due, send the scores once and flush each
+                //player's messages of the tick in one write.
+                MoleEvent event = events.take();
+                while (event != null && go) {
+                    go = handle(event);
+                    event = events.poll();
+                }
+                endTick();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                go = false;
             } catch (Exception e) {
                 for (int i = 0; i < playerAmt; i++) {
                     players.get(i).error(e.getMessage());
                 }
             }
         }
-        go = false;
+        finish();
+    }
+
+    /**
+     * start the clock: schedule the end of the game, the first moles and
+     * the first ping.
+     */
+    void begin() {
+        now = clock.nanoTime();
+        if (log != null) {
+            log.begin(now, seed, rows, cols, playerAmt, game_time, moles, score_interval,
+                    (int) TimeUnit.NANOSECONDS.toMillis(tolerance));
+        }
+        schedule(MoleEvent.Type.END, -1, (int) TimeUnit.SECONDS.toMillis(game_time));
+        //the first mole pops up right away, the others after a down time.
+        timer(new MoleEvent(MoleEvent.Type.UP, -1, now), 0);
+        timer(new MoleEvent(MoleEvent.Type.PING, -1, now), 0);
+        for (int i = 1; i < moles; i++) {
+            schedule(MoleEvent.Type.UP, -1, moleDownTime());
+        }
+    }
+
+    /**
+     * end of a tick: send the scores once and flush each player's
+     * messages of the tick in one write.
+     */
+    void endTick() {
+        now = clock.nanoTime();
+        if (log != null) log.event(WAMGameLog.TICK, now);
+        flushScores();
+        flushPlayers();
+    }
+
+    /**
+     * the game is over: stop the timers, send the last scores and the
+     * results, and let the players go.
+     */
+    void finish() {
+        over = true;
+        for (int i = 0; i < timers.size(); i++) {
+            timers.get(i).cancel(false);
+        }
+        timers.clear();
+        events.clear();
+        board.clear();
+        long sent = broadcaster.getBroadcasts();
+        broadcaster.flushNow(now);
+        scoresSent(sent);
         game_result();
         close();
+        if (log != null) log.close();
+    }
+
+    /**
+     * handle one event.
+     * @param event the event that is due
+     * @return false once the game is over
+     */
+    boolean handle(MoleEvent event) {
+        now = clock.nanoTime();
+        if (event.type != MoleEvent.Type.WHACK) {
+            metrics.getDrift().record(now - event.deadline);
+        }
+        switch (event.type) {
+            case UP:
+                popUp(event.mole);
+                break;
+            case DOWN:
+                popDown(event.mole);
+                break;
+            case WHACK:
+                if (judge(event.player, event.mole, event.deadline, event.rtt)) {
+                    whackScored(event.deadline);
+                }
+                break;
+            case SCORE:
+                scoreDue = 0;
+                if (log != null) log.event(WAMGameLog.SCORE_DUE, now);
+                break;
+            case PING:
+                ping();
+                if (log != null) log.event(WAMGameLog.PING, now);
+                break;
+            case END:
+                if (log != null) log.event(WAMGameLog.END, now);
+                return false;
+            default:
+        }
+        return true;
+    }
 
+    /**
+     * end of a tick: broadcast the scores that changed, or wake up again
+     * once the broadcast interval allows it.
+     */
+    private void flushScores() {
+        long sent = broadcaster.getBroadcasts();
+        long due = broadcaster.flush(now);
+        scoresSent(sent);
+        if (due != 0 && scoreDue == 0) {
+            scoreDue = due;
+            timer(new MoleEvent(MoleEvent.Type.SCORE, -1, due), due - now);
+        }
     }
 
     /**
-     * close players.
+     * Ping every player, and again after the ping interval.
      */
-    public void close() {
+    private void ping() {
         for (int i = 0; i < playerAmt; i++) {
-            players.get(i).close();
+            players.get(i).ping(now);
         }
+        schedule(MoleEvent.Type.PING, -1, PING_INTERVAL);
     }
 
     /**
-     * Compute the elapsed time.
-     *
-     * @param start
-     * @return
+     * Send what the players were written during the tick.
      */
-    public boolean getElapsedTime(double start) {
-        double elapsedTime = (System.currentTimeMillis() - start) / 1000.0;
-        //System.out.println("Elapsed time: " +
-        //        (System.currentTimeMillis() - start) / 1000.0 + " seconds.");
-        if (elapsedTime <= game_time) {
-            return true;
-        } else {
-            return false;
+    private void flushPlayers() {
+        for (int i = 0; i < playerAmt; i++) {
+            players.get(i).flush();
         }
     }
 
     /**
-     * Make mole up thread work.
+     * Keep the time a whack that scored was received, until its SCORE is sent.
+     * @param received nano time the whack was received
      */
-    public void moleups(){
-        Thread moleupThread = new Thread(() -> {
-            MoleUpThread();
-        });
-        moleupThread.start();
+    private void whackScored(long received) {
+        if (whacks == whackTimes.length) {
+            whackTimes = Arrays.copyOf(whackTimes, whacks * 2);
+        }
+        whackTimes[whacks++] = received;
+    }
 
+    /**
+     * If a SCORE went out, record how long the whacks it reports waited.
+     * @param before number of broadcasts before the flush
+     */
+    private void scoresSent(long before) {
+        if (broadcaster.getBroadcasts() == before) return;
+        if (log != null) log.score(now, broadcaster.getSent(), playerAmt);
+        long sent = clock.nanoTime();
+        for (int i = 0; i < whacks; i++) {
+            metrics.getWhackLatency().record(sent - whackTimes[i]);
+        }
+        whacks = 0;
     }
 
     /**
-     * Calculate mole up thread time and make random numbers to happen.
+     * close players.
      */
-    public void MoleUpThread(){
-        //the up time is between 3 and 5 seconds
-        int min = 3, max = 5;
-        int s = min + new Random().nextInt(max - min + 1);
-        try {
-            Thread.sleep(s * 1000); //the up time is between 3 and 5 seconds
-        } catch (InterruptedException ex) {
-            ex.printStackTrace();
+    public void close() {
+        for (int i = 0; i < playerAmt; i++) {
+            players.get(i).close();
         }
     }
 
     /**
-     * Make mole down thread work.
+     * Calculate how long a mole stays up, in milliseconds.
+     * @return the up time
      */
-    public void moledowns() {
-        Thread moledownThread = new Thread(() -> {
-            MoleDownThread();
-        });
-        moledownThread.start();
+    public int moleUpTime(){
+        //the up time is between 3 and 5 seconds
+        int min = 3, max = 5;
+        int s = min + random.nextInt(max - min + 1);
+        return s * 1000;
     }
 
     /**
-     * Calculate mole down thread time and make random numbers to happen.
+     * Calculate how long a mole stays down, in milliseconds.
+     * @return the down time
      */
-    public void MoleDownThread(){
+    public int moleDownTime(){
+        //the down time is between 2 and 10 seconds
         int min = 2, max = 10;
-        int s = min + new Random().nextInt(max - min + 1);
-        try {
-            Thread.sleep(s * 1000); //the down time is between 2 and 10 seconds
-        } catch (InterruptedException ex) {
-            ex.printStackTrace();
+        int s = min + random.nextInt(max - min + 1);
+        return s * 1000;
+    }
+
+    /**
+     * Schedule an event some milliseconds from now. The timer only queues
+     * the event for the game thread.
+     * @param type the kind of event
+     * @param mole the mole number
+     * @param millis delay in milliseconds
+     */
+    private void schedule(MoleEvent.Type type, int mole, int millis) {
+        MoleEvent event = new MoleEvent(type, mole, now + TimeUnit.MILLISECONDS.toNanos(millis));
+        timer(event, TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    /**
+     * Queue an event for the game thread once a delay is over, and keep
+     * the timer so it can be cancelled when the game ends.
+     * @param event the event
+     * @param nanos the delay in nanoseconds
+     */
+    private void timer(MoleEvent event, long nanos) {
+        if (timers.size() > 2 * moles + 4) {
+            timers.removeIf(Future::isDone);
         }
+        timers.add(clock.schedule(event, nanos, this));
+    }
+
+    /**
+     * Called by a timer when an event is due: queue it for the game thread.
+     * @param event the event
+     */
+    void due(MoleEvent event) {
+        if (!over) events.add(event);
     }
 
     /**
@@ -143,118 +390,127 @@ public class WAMGame
      * @return
      */
     public int random_num() {
-        Random r = new Random();
         int bound = rows * cols;
-        int r_num = r.nextInt(bound); //when calling on r.nextInt(bound), it takes 0-24 numbers randomly.
+        int r_num = random.nextInt(bound); //when calling on random.nextInt(bound), it takes 0-24 numbers randomly.
         return r_num;
     }
 
     /**
-     * make a whack in the game.
-     * @param players
+     * @return the seed of the game's random generator
      */
-    public void makeWhack(ArrayList<WAMPlayer> players) {
-        int col = random_num();
-        switch (playerAmt) {
-            case 1: //when number of players is 1
-                player_1 = players.get(0);
-                player_1.mole_up(col);
-                moleups();
-                if (!player_1.isMadeWhack(col)) {
-                    player_1.mole_down(col);
-                    moledowns();
-                }
-                break;
-            case 2: //when number of players is 2
-                player_1 = players.get(0);
-                player_2 = players.get(1);
-                player_1.mole_up(col);
-                player_2.mole_up(col);
-                moleups();
-                if (!player_1.isMadeWhack(col)) {
-                    player_1.mole_down(col);
-                }
-                if (!player_2.isMadeWhack(col)) {
-                    player_2.mole_down(col);
-                }
-                moledowns();
-                break;
-            case 3: //when number of players is 3
-                player_1 = players.get(0);
-                player_2 = players.get(1);
-                player_3 = players.get(2);
-                player_1.mole_up(col);
-                player_2.mole_up(col);
-                player_3.mole_up(col);
-                moleups();
-                if (!player_1.isMadeWhack(col)) {
-                    player_1.mole_down(col);
-                }
-                if (!player_2.isMadeWhack(col)) {
-                    player_2.mole_down(col);
-                }
-                if (!player_3.isMadeWhack(col)) {
-                    player_3.mole_down(col);
-                }
-                moledowns();
-                break;
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Called from an I/O thread when a player whacks. The whack is queued
+     * and judged by the game thread, so no socket is ever waited on.
+     * @param player the player who whacked
+     * @param col the mole number
+     */
+    public void whack(WAMPlayer player, int col) {
+        events.add(new MoleEvent(MoleEvent.Type.WHACK, col, clock.nanoTime(), player, player.getRtt()));
+    }
+
+    /**
+     * pop a mole up at a free hole for every player and schedule it to
+     * drop back down.
+     * @param col the mole number, -1 to pick a random free hole
+     */
+    public void popUp(int col) {
+        if (col < 0) col = board.nextDown(random_num());
+        if (col < 0 || !board.up(col, now)) {
+            //no free hole right now, try again after a down time.
+            if (log != null) log.mole(WAMGameLog.UP, now, -1);
+            schedule(MoleEvent.Type.UP, -1, moleDownTime());
+            return;
+        }
+        if (log != null) log.mole(WAMGameLog.UP, now, col);
+        for (int i = 0; i < playerAmt; i++) {
+            players.get(i).mole_up(col);
+        }
+        schedule(MoleEvent.Type.DOWN, col, moleUpTime());
+    }
+
+    /**
+     * judge a whack against the moles as the player saw them: one round
+     * trip before the whack was received. For benchmarks.
+     * @param player the player who whacked
+     * @param col the mole number
+     * @param received nano time the whack was received
+     * @return true if the whack scored
+     */
+    boolean judge(WAMPlayer player, int col, long received) {
+        return judge(player, col, received, player.getRtt());
+    }
+
+    /**
+     * judge a whack against the moles as the player saw them.
+     * @param player the player who whacked
+     * @param col the mole number
+     * @param received nano time the whack was received
+     * @param rtt round trip time to the player when it was received
+     * @return true if the whack scored
+     */
+    private boolean judge(WAMPlayer player, int col, long received, long rtt) {
+        long seen = received - Math.min(rtt, MAX_REWIND);
+        int verdict = board.whack(player.getPlayerNumber(), col, seen, tolerance);
+        if (log != null) log.whack(now, received, rtt, player.getPlayerNumber(), col, verdict);
+        switch (verdict) {
+            case WAMBoard.HIT:
+                player.whacked(col);
+                broadcaster.markDirty();
+                return true;
+            case WAMBoard.LATE_HIT:
+                player.whackedLate();
+                broadcaster.markDirty();
+                return true;
             default:
+                return false;
         }
     }
 
+    /**
+     * the up time of a mole is over: drop it down for the players who did
+     * not whack it and schedule the next pop-up of this mole.
+     * @param col the mole number
+     */
+    public void popDown(int col) {
+        for (int i = 0; i < playerAmt; i++) {
+            if (!board.hasWhacked(i, col)) {
+                players.get(i).mole_down(col);
+                broadcaster.markDirty();
+            }
+        }
+        board.down(col, now);
+        if (log != null) log.mole(WAMGameLog.DOWN, now, col);
+        schedule(MoleEvent.Type.UP, -1, moleDownTime());
+    }
+
+    /**
+     * @return the board of the game, for benchmarks
+     */
+    WAMBoard getBoard() {
+        return board;
+    }
+
     /**
      * inform the game result to each player after the game-duration time is over.
      */
     public void game_result() {
-        switch (playerAmt) {
-            case 1: //when there is one player.
-                player_1.won();
-                break;
-            case 2: //when there are two players.
-                if (scoreList.get(0) > scoreList.get(1)) {
-                    player_1.won();
-                    player_2.lost();
-                } else if (scoreList.get(0) < scoreList.get(1)) {
-                    player_1.lost();
-                    player_2.won();
-                } else {
-                    player_1.draw();
-                    player_2.draw();
-                }
-                break;
-            case 3: //when there are three players.
-
-                if (scoreList.get(0) > scoreList.get(1) && scoreList.get(0) > scoreList.get(2)) { //case1: player1 wins
-                    player_1.won();
-                    player_2.lost();
-                    player_3.lost();
-                } else if (scoreList.get(1) > scoreList.get(0) && scoreList.get(1) > scoreList.get(2)) { //case2: player2 wins
-                    player_1.lost();
-                    player_2.won();
-                    player_3.lost();
-                } else if (scoreList.get(2) > scoreList.get(0) && scoreList.get(2) > scoreList.get(1)) { //case3: player3 wins
-                    player_1.lost();
-                    player_2.lost();
-                    player_3.won();
-                } else if (scoreList.get(0) == scoreList.get(1) && scoreList.get(0) > scoreList.get(2)) { //case4: player1 and player 2 both win
-                    player_1.won();
-                    player_2.won();
-                    player_3.lost();
-                } else if (scoreList.get(0) == scoreList.get(2) && scoreList.get(0) > scoreList.get(1)) { //case5: player1 and player 3 both win
-                    player_1.won();
-                    player_2.lost();
-                    player_3.won();
-                } else if (scoreList.get(1) == scoreList.get(2) && scoreList.get(1) > scoreList.get(0)) { //case6: player2 and player 3 both win
-                    player_1.lost();
-                    player_2.won();
-                    player_3.won();
-                } else { //case4: all players tie
-                    player_1.draw();
-                    player_2.draw();
-                    player_3.draw();
-                }
-                break;
-            default:
+        WAMRanking ranking = new WAMRanking(scores.snapshot());
+        for (int i = 0; i < playerAmt; i++) {
+            WAMPlayer player = players.get(i);
+            switch (ranking.result(player.getPlayerNumber())) {
+                case WON:
+                    player.won();
+                    break;
+                case TIED:
+                    player.draw();
+                    break;
+                default:
+                    player.lost();
+            }
         }
     }
 }
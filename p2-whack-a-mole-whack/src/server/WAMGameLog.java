@@ -0,0 +1,303 @@
+package server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * An append-only binary log of everything a {@link WAMGame} does, enough
+ * for a {@link WAMReplay} to play the game again. The game thread only
+ * encodes records into a buffer; full buffers are written to the file by
+ * one writer thread shared by all games, so the game never waits on the
+ * disk.
+ * <br>
+ * The log starts with a header: the magic number "WAML", a version byte,
+ * the seed as eight bytes, then the varints rows, cols, players,
+ * game_time, moles, score_interval and tolerance, and the start time.
+ * Each record is a type byte and the nanoseconds since the record before
+ * it (the start for the first), followed by:
+ * <ul>
+ *     <li>UP: the hole the mole popped up at, -1 if none was free</li>
+ *     <li>DOWN: the mole number</li>
+ *     <li>WHACK: the player number, the mole number, how long before the
+ *     record the whack was received, the round trip time it was judged
+ *     with, and the verdict of {@link WAMBoard}</li>
+ *     <li>SCORE: the number of scores, then the scores</li>
+ *     <li>SCORE_DUE, PING, TICK (the end of a tick), END: nothing</li>
+ * </ul>
+ * Times are in nanoseconds. Numbers are the varints of
+ * {@link common.WAMBinary}, zig-zag encoded where they may be negative.
+ *
+ * @author Daniel Cho
+ * @author Juan Patino
+ */
+public class WAMGameLog implements Closeable {
+
+    static final int MAGIC = 0x57414D4C;
+    static final byte VERSION = 1;
+
+    static final byte UP = 1;
+    static final byte DOWN = 2;
+    static final byte WHACK = 3;
+    static final byte SCORE = 4;
+    static final byte SCORE_DUE = 5;
+    static final byte PING = 6;
+    static final byte TICK = 7;
+    static final byte END = 8;
+
+    /** Size of the buffers handed to the writer */
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /** longest varlong */
+    private static final int LONG_BYTES = 10;
+
+    /** writes the logs of every game */
+    private static ExecutorService writer;
+
+    /** where the log goes */
+    private final WritableByteChannel channel;
+    /** runs the writes */
+    private final Executor writes;
+    /** buffers the writer is done with */
+    private final ConcurrentLinkedQueue<ByteBuffer> spare = new ConcurrentLinkedQueue<>();
+    /** records not yet handed to the writer; game thread only */
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    /** nano time of the last record; game thread only */
+    private long last;
+    /** true once writing failed, so it is only reported once */
+    private volatile boolean failed;
+
+    /**
+     * Create a log.
+     * @param channel where the log goes
+     * @param writes runs the writes to the channel, one after the other
+     */
+    WAMGameLog(WritableByteChannel channel, Executor writes) {
+        this.channel = channel;
+        this.writes = writes;
+    }
+
+    /**
+     * Create a log file, replacing any file of that name.
+     * @param file the file
+     * @return the log
+     * @throws IOException if the file cannot be created
+     */
+    public static WAMGameLog create(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        return new WAMGameLog(channel, writer());
+    }
+
+    /**
+     * @return the thread that writes the logs of every game
+     */
+    private static synchronized Executor writer() {
+        if (writer == null) {
+            writer = Executors.newSingleThreadExecutor(task -> {
+                Thread thread = new Thread(task, "WAMGameLog");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return writer;
+    }
+
+    /**
+     * Write the header.
+     * @param start nano time the game starts
+     */
+    void begin(long start, long seed, int rows, int cols, int players, int game_time, int moles,
+               int score_interval, int tolerance) {
+        room(13 + 8 * LONG_BYTES);
+        buffer.putInt(MAGIC);
+        buffer.put(VERSION);
+        buffer.putLong(seed);
+        putVarlong(buffer, rows);
+        putVarlong(buffer, cols);
+        putVarlong(buffer, players);
+        putVarlong(buffer, game_time);
+        putVarlong(buffer, moles);
+        putVarlong(buffer, score_interval);
+        putVarlong(buffer, tolerance);
+        putVarlong(buffer, zigzag(start));
+        last = start;
+    }
+
+    /**
+     * Log an event without arguments.
+     * @param type SCORE_DUE, PING, TICK or END
+     * @param now the nano time
+     */
+    void event(byte type, long now) {
+        record(type, now, 0);
+    }
+
+    /**
+     * Log a mole popping up or dropping down.
+     * @param type UP or DOWN
+     * @param now the nano time
+     * @param mole the mole number
+     */
+    void mole(byte type, long now, int mole) {
+        record(type, now, LONG_BYTES);
+        putVarlong(buffer, zigzag(mole));
+    }
+
+    /**
+     * Log a whack and how it was judged.
+     * @param now the nano time
+     * @param received nano time the whack was received
+     * @param rtt round trip time the whack was judged with
+     * @param player the player number
+     * @param mole the mole number
+     * @param verdict what {@link WAMBoard#whack(int, int, long, long)} said
+     */
+    void whack(long now, long received, long rtt, int player, int mole, int verdict) {
+        record(WHACK, now, 5 * LONG_BYTES);
+        putVarlong(buffer, player);
+        putVarlong(buffer, zigzag(mole));
+        putVarlong(buffer, zigzag(now - received));
+        putVarlong(buffer, zigzag(rtt));
+        putVarlong(buffer, verdict);
+    }
+
+    /**
+     * Log a SCORE broadcast.
+     * @param now the nano time
+     * @param scores the scores
+     * @param count number of scores
+     */
+    void score(long now, int[] scores, int count) {
+        record(SCORE, now, (count + 1) * LONG_BYTES);
+        putVarlong(buffer, count);
+        for (int i = 0; i < count; i++) {
+            putVarlong(buffer, zigzag(scores[i]));
+        }
+    }
+
+    /**
+     * Write what is left and close the log.
+     */
+    @Override
+    public void close() {
+        flush();
+        writes.execute(() -> {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // squash
+            }
+        });
+    }
+
+    /**
+     * Start a record.
+     * @param type the record type
+     * @param now the nano time
+     * @param args room needed for the arguments
+     */
+    private void record(byte type, long now, int args) {
+        room(1 + LONG_BYTES + args);
+        buffer.put(type);
+        putVarlong(buffer, zigzag(now - last));
+        last = now;
+    }
+
+    /**
+     * Make room in the buffer, handing it to the writer if it is full.
+     * @param needed number of bytes about to be put
+     */
+    private void room(int needed) {
+        if (buffer.remaining() >= needed) return;
+        flush();
+        if (buffer.remaining() < needed) {
+            buffer = ByteBuffer.allocate(needed);
+        }
+    }
+
+    /**
+     * Hand the buffered records to the writer and take an empty buffer.
+     */
+    private void flush() {
+        if (buffer.position() == 0) return;
+        ByteBuffer full = buffer;
+        ByteBuffer next = spare.poll();
+        buffer = next != null ? next : ByteBuffer.allocate(BUFFER_SIZE);
+        full.flip();
+        writes.execute(() -> write(full));
+    }
+
+    /**
+     * Write a buffer to the channel. Runs on the writer.
+     * @param full the records
+     */
+    private void write(ByteBuffer full) {
+        try {
+            while (full.hasRemaining()) {
+                channel.write(full);
+            }
+        } catch (IOException e) {
+            if (!failed) {
+                failed = true;
+                System.err.println("Game log: " + e);
+            }
+        }
+        full.clear();
+        if (full.capacity() == BUFFER_SIZE) {
+            spare.offer(full);
+        }
+    }
+
+    /**
+     * @param value a signed long
+     * @return the value zig-zag encoded, small whatever its sign
+     */
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    /**
+     * @param value a zig-zag encoded long
+     * @return the signed long
+     */
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Write a long as an unsigned varint of at most ten bytes.
+     * @param buffer where to write
+     * @param value the long
+     */
+    static void putVarlong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Read an unsigned varint.
+     * @param buffer where to read
+     * @return the long
+     */
+    static long getVarlong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) break;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,412 @@
+package server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What a server counts while it runs. The threads that do the work only
+ * add to striped {@link LongAdder}s, so counting takes no lock and threads
+ * do not contend on one cache line; the totals are summed up when someone
+ * reads them, over JMX or from the {@link WAMMetricsEndpoint}.
+ *
+ * @author Daniel Cho
+ * @author Juan Patino
+ */
+public class WAMMetrics implements WAMMetricsMBean {
+
+    /** metrics of connections and games created without a server */
+    private static WAMMetrics defaultMetrics;
+
+    /** shortest time over which the message rates are measured */
+    private static final long RATE_WINDOW = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * A histogram that many threads record into without locking. Bucket
+     * i holds the values below 2^i, so quantiles are known to within a
+     * factor of two, which is enough to watch latencies move.
+     */
+    public static class Histogram {
+        private final LongAdder[] buckets = new LongAdder[64];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * Record one value.
+         * @param value the value, negative values count as 0
+         */
+        public void record(long value) {
+            if (value < 0) value = 0;
+            buckets[64 - Long.numberOfLeadingZeros(value)].increment();
+            count.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        /**
+         * @return number of values recorded
+         */
+        public long getCount() {
+            return count.sum();
+        }
+
+        /**
+         * @return sum of the values recorded
+         */
+        public long getSum() {
+            return sum.sum();
+        }
+
+        /**
+         * @return the largest value recorded
+         */
+        public long getMax() {
+            return max.get();
+        }
+
+        /**
+         * @return the mean of the values, 0 if there is none
+         */
+        public long getMean() {
+            long n = count.sum();
+            return n == 0 ? 0 : sum.sum() / n;
+        }
+
+        /**
+         * @param quantile the quantile, 0 to 1
+         * @return a value at least as large as that quantile of the values
+         */
+        public long getQuantile(double quantile) {
+            long[] counts = new long[buckets.length];
+            long total = 0;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = buckets[i].sum();
+                total += counts[i];
+            }
+            if (total == 0) return 0;
+            long wanted = Math.max(1, (long) Math.ceil(quantile * total));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= wanted) {
+                    return Math.min(getMax(), i == 0 ? 0 : (1L << i) - 1);
+                }
+            }
+            return getMax();
+        }
+    }
+
+    private final LongAdder gamesActive = new LongAdder();
+    private final LongAdder gamesStarted = new LongAdder();
+    private final LongAdder connectionsActive = new LongAdder();
+    private final LongAdder connectionsOpened = new LongAdder();
+    private final LongAdder messagesIn = new LongAdder();
+    private final LongAdder messagesOut = new LongAdder();
+    private final LongAdder queuedBytes = new LongAdder();
+    private final LongAdder writeErrors = new LongAdder();
+    private final LongAdder slowConsumers = new LongAdder();
+    private final LongAdder messagesDropped = new LongAdder();
+    /** nanoseconds from receiving a whack that scored to sending the SCORE */
+    private final Histogram whackLatency = new Histogram();
+    /** nanoseconds a mole timer was handled after it was due */
+    private final Histogram drift = new Histogram();
+    /** nanoseconds from a PING to its PONG */
+    private final Histogram rtt = new Histogram();
+    /** bytes waiting in a connection's write buffer each time one is queued */
+    private final Histogram writeQueueDepth = new Histogram();
+
+    /** start of the current rate window and the totals at that time; guarded by this */
+    private long windowStart = System.nanoTime();
+    private long windowIn;
+    private long windowOut;
+    private double rateIn;
+    private double rateOut;
+
+    /**
+     * @return metrics for the connections and games that are not run by a server
+     */
+    public static synchronized WAMMetrics getDefault() {
+        if (defaultMetrics == null) {
+            defaultMetrics = new WAMMetrics();
+        }
+        return defaultMetrics;
+    }
+
+    /** A game started */
+    void gameStarted() {
+        gamesStarted.increment();
+        gamesActive.increment();
+    }
+
+    /** A game is over */
+    void gameEnded() {
+        gamesActive.decrement();
+    }
+
+    /** A client connected */
+    void connectionOpened() {
+        connectionsOpened.increment();
+        connectionsActive.increment();
+    }
+
+    /** A client connection closed */
+    void connectionClosed() {
+        connectionsActive.decrement();
+    }
+
+    /**
+     * @param messages number of messages decoded
+     */
+    void messagesIn(int messages) {
+        messagesIn.add(messages);
+    }
+
+    /** A message was sent */
+    void messageOut() {
+        messagesOut.increment();
+    }
+
+    /**
+     * Bytes were queued on a connection.
+     * @param bytes bytes added
+     * @param depth bytes waiting on the connection now
+     */
+    void queued(int bytes, int depth) {
+        queuedBytes.add(bytes);
+        writeQueueDepth.record(depth);
+    }
+
+    /**
+     * Queued bytes were written to a socket.
+     * @param bytes bytes written
+     */
+    void written(int bytes) {
+        queuedBytes.add(-bytes);
+    }
+
+    /** Writing to a client failed, so its connection is closed */
+    void writeFailed() {
+        writeErrors.increment();
+    }
+
+    /** A client fell too far behind, so its connection is closed */
+    void slowConsumer() {
+        slowConsumers.increment();
+    }
+
+    /** A message waiting for a client that is behind was replaced by a newer one */
+    void messageDropped() {
+        messagesDropped.increment();
+    }
+
+    /**
+     * @return nanoseconds from receiving a whack that scored to sending the SCORE
+     */
+    public Histogram getWhackLatency() {
+        return whackLatency;
+    }
+
+    /**
+     * @return nanoseconds the game handled its timers late
+     */
+    public Histogram getDrift() {
+        return drift;
+    }
+
+    /**
+     * @return nanoseconds from a PING to its PONG
+     */
+    public Histogram getRtt() {
+        return rtt;
+    }
+
+    /**
+     * @return bytes waiting on a connection whenever a message is queued
+     */
+    public Histogram getWriteQueueDepth() {
+        return writeQueueDepth;
+    }
+
+    @Override
+    public long getActiveGames() {
+        return gamesActive.sum();
+    }
+
+    @Override
+    public long getGamesStarted() {
+        return gamesStarted.sum();
+    }
+
+    @Override
+    public long getActiveConnections() {
+        return connectionsActive.sum();
+    }
+
+    @Override
+    public long getConnectionsOpened() {
+        return connectionsOpened.sum();
+    }
+
+    @Override
+    public long getMessagesIn() {
+        return messagesIn.sum();
+    }
+
+    @Override
+    public long getMessagesOut() {
+        return messagesOut.sum();
+    }
+
+    @Override
+    public synchronized double getMessagesInPerSecond() {
+        roll();
+        return rateIn;
+    }
+
+    @Override
+    public synchronized double getMessagesOutPerSecond() {
+        roll();
+        return rateOut;
+    }
+
+    @Override
+    public long getQueuedBytes() {
+        return queuedBytes.sum();
+    }
+
+    @Override
+    public long getWriteErrors() {
+        return writeErrors.sum();
+    }
+
+    @Override
+    public long getSlowConsumers() {
+        return slowConsumers.sum();
+    }
+
+    @Override
+    public long getMessagesDropped() {
+        return messagesDropped.sum();
+    }
+
+    @Override
+    public long getWriteQueueDepthMax() {
+        return writeQueueDepth.getMax();
+    }
+
+    @Override
+    public long getWriteQueueDepthP99() {
+        return writeQueueDepth.getQuantile(0.99);
+    }
+
+    @Override
+    public long getWhackLatencyMeanMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(whackLatency.getMean());
+    }
+
+    @Override
+    public long getWhackLatencyP99Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(whackLatency.getQuantile(0.99));
+    }
+
+    @Override
+    public long getWhackLatencyMaxMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(whackLatency.getMax());
+    }
+
+    @Override
+    public long getDriftMeanMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(drift.getMean());
+    }
+
+    @Override
+    public long getDriftP99Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(drift.getQuantile(0.99));
+    }
+
+    @Override
+    public long getDriftMaxMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(drift.getMax());
+    }
+
+    @Override
+    public long getRttMeanMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(rtt.getMean());
+    }
+
+    @Override
+    public long getRttP99Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(rtt.getQuantile(0.99));
+    }
+
+    /**
+     * Start a new rate window once the current one is long enough. The
+     * rates are those of the last finished window.
+     */
+    private void roll() {
+        long now = System.nanoTime();
+        long elapsed = now - windowStart;
+        if (elapsed < RATE_WINDOW) return;
+        long in = messagesIn.sum();
+        long out = messagesOut.sum();
+        rateIn = (in - windowIn) * 1e9 / elapsed;
+        rateOut = (out - windowOut) * 1e9 / elapsed;
+        windowStart = now;
+        windowIn = in;
+        windowOut = out;
+    }
+
+    /**
+     * Write every metric as a line of name and value, in the text format
+     * Prometheus scrapes. Times are in seconds.
+     * @return the metrics
+     */
+    public String scrape() {
+        StringBuilder out = new StringBuilder(2048);
+        line(out, "wam_games_active", getActiveGames());
+        line(out, "wam_games_started_total", getGamesStarted());
+        line(out, "wam_connections_active", getActiveConnections());
+        line(out, "wam_connections_opened_total", getConnectionsOpened());
+        line(out, "wam_messages_in_total", getMessagesIn());
+        line(out, "wam_messages_out_total", getMessagesOut());
+        line(out, "wam_messages_in_per_second", getMessagesInPerSecond());
+        line(out, "wam_messages_out_per_second", getMessagesOutPerSecond());
+        line(out, "wam_write_queue_bytes", getQueuedBytes());
+        line(out, "wam_write_errors_total", getWriteErrors());
+        line(out, "wam_slow_consumers_total", getSlowConsumers());
+        line(out, "wam_messages_dropped_total", getMessagesDropped());
+        histogram(out, "wam_write_queue_depth_bytes", writeQueueDepth, 1);
+        histogram(out, "wam_whack_latency_seconds", whackLatency, 1e9);
+        histogram(out, "wam_mole_drift_seconds", drift, 1e9);
+        histogram(out, "wam_rtt_seconds", rtt, 1e9);
+        return out.toString();
+    }
+
+    /**
+     * Write a histogram as a summary: quantiles, sum, count and max.
+     */
+    private static void histogram(StringBuilder out, String name, Histogram histogram, double unit) {
+        double[] quantiles = {0.5, 0.9, 0.99};
+        for (double q : quantiles) {
+            line(out, name + "{quantile=\"" + q + "\"}", histogram.getQuantile(q) / unit);
+        }
+        line(out, name + "_sum", histogram.getSum() / unit);
+        line(out, name + "_count", histogram.getCount());
+        line(out, name + "_max", histogram.getMax() / unit);
+    }
+
+    private static void line(StringBuilder out, String name, long value) {
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void line(StringBuilder out, String name, double value) {
+        out.append(name).append(' ').append(value).append('\n');
+    }
+}
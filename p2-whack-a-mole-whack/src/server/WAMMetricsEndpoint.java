@@ -0,0 +1,56 @@
+package server;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves the {@link WAMMetrics} of a server as plain text over HTTP, at
+ * /metrics, for a scraper or a curl. It runs on a thread of its own, away
+ * from the game and I/O threads.
+ *
+ * @author Daniel Cho
+ * @author Juan Patino
+ */
+public class WAMMetricsEndpoint implements Closeable {
+
+    private final HttpServer http;
+
+    /**
+     * Start serving the metrics.
+     * @param port the port to listen on
+     * @param metrics the metrics
+     * @throws IOException if the port cannot be bound
+     */
+    public WAMMetricsEndpoint(int port, WAMMetrics metrics) throws IOException {
+        http = HttpServer.create(new InetSocketAddress(port), 0);
+        http.createContext("/metrics", exchange -> {
+            byte[] body = metrics.scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        http.start();
+    }
+
+    /**
+     * @return the port the metrics are served on
+     */
+    public int getPort() {
+        return http.getAddress().getPort();
+    }
+
+    /**
+     * Stop serving.
+     */
+    @Override
+    public void close() {
+        http.stop(0);
+    }
+}
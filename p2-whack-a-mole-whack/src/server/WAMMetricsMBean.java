@@ -0,0 +1,76 @@
+package server;
+
+/**
+ * The {@link WAMMetrics} of a server as JMX sees them.
+ *
+ * @author Daniel Cho
+ * @author Juan Patino
+ */
+public interface WAMMetricsMBean {
+
+    /** @return games being played */
+    long getActiveGames();
+
+    /** @return games started so far */
+    long getGamesStarted();
+
+    /** @return clients connected */
+    long getActiveConnections();
+
+    /** @return clients connected so far */
+    long getConnectionsOpened();
+
+    /** @return messages received so far */
+    long getMessagesIn();
+
+    /** @return messages sent so far */
+    long getMessagesOut();
+
+    /** @return messages received per second lately */
+    double getMessagesInPerSecond();
+
+    /** @return messages sent per second lately */
+    double getMessagesOutPerSecond();
+
+    /** @return bytes waiting to be written, over all connections */
+    long getQueuedBytes();
+
+    /** @return connections closed because writing to them failed */
+    long getWriteErrors();
+
+    /** @return connections closed because the client fell too far behind */
+    long getSlowConsumers();
+
+    /** @return messages replaced by a newer one before a client that is behind got them */
+    long getMessagesDropped();
+
+    /** @return most bytes ever waiting on one connection */
+    long getWriteQueueDepthMax();
+
+    /** @return bytes waiting on a connection, 99th percentile */
+    long getWriteQueueDepthP99();
+
+    /** @return mean microseconds from a whack that scored to the SCORE */
+    long getWhackLatencyMeanMicros();
+
+    /** @return microseconds from a whack that scored to the SCORE, 99th percentile */
+    long getWhackLatencyP99Micros();
+
+    /** @return most microseconds from a whack that scored to the SCORE */
+    long getWhackLatencyMaxMicros();
+
+    /** @return mean microseconds a mole timer was handled late */
+    long getDriftMeanMicros();
+
+    /** @return microseconds a mole timer was handled late, 99th percentile */
+    long getDriftP99Micros();
+
+    /** @return most microseconds a mole timer was handled late */
+    long getDriftMaxMicros();
+
+    /** @return mean microseconds from a PING to its PONG */
+    long getRttMeanMicros();
+
+    /** @return microseconds from a PING to its PONG, 99th percentile */
+    long getRttP99Micros();
+}
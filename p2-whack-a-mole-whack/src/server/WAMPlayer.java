@@ -1,15 +1,10 @@
 package server;
 
+import common.WAMEncoder;
 import common.WAMProtocol;
-import common.WhackException;
 
 import java.io.Closeable;
-import java.io.IOException;
-import java.io.PrintStream;
-import java.net.Socket;
-import java.util.ArrayList;
-import java.util.NoSuchElementException;
-import java.util.Scanner;
+import java.nio.ByteBuffer;
 
 /**
  * A class that manages the requests and responses to a single client.
@@ -19,53 +14,60 @@ import java.util.Scanner;
  */
 
 /**
- * A class handling connections to clients.
+ * A class handling connections to clients. It speaks the protocol over a
+ * {@link WAMConnection}, which does the actual I/O. The messages of a game
+ * tick are only written; the game flushes them all at the end of the tick.
  */
-public class WAMPlayer implements WAMProtocol, Closeable {
+public class WAMPlayer implements WAMProtocol, WAMConnection.Listener, Closeable {
 
     /**
-     * Send requests to clients
+     * The connection that will be used to communicate to clients
      */
-    private PrintStream printStream;
+    private WAMConnection connection;
+
     /**
-     * The Socket that will be used to communicate to clients
+     * The game the player is in, null while waiting in the lobby.
      */
-    private Socket socket;
+    private volatile WAMGame game;
 
     /**
-     * Scanner to be used to read Character responses.
+     * True once the client switched to binary frames; guarded by this.
      */
-    private Scanner scanner;
+    private boolean binary;
 
     /**
-     * The player number
+     * Number of the last PING; guarded by this.
      */
-    private int playerNumber;
+    private int pingId;
+
     /**
-     * The total score of the player
+     * Nano time the last PING was sent, 0 once it is answered; guarded by this.
      */
-    private int tot_score;
+    private long pingSent;
 
     /**
-     * The list of scores for all players
+     * Smoothed round trip time to the client in nanoseconds, 0 until the
+     * first PONG.
+     */
+    private volatile long rtt;
+
+    /**
+     * The player number
+     */
+    private int playerNumber;
+    /**
+     * The scores for all players
      */
-    private ArrayList<Integer> scoreList;
+    private WAMScores scores;
 
 
     /**
      * Constructor of WhackPLayer
-     * @param s
-     * @throws WhackException
-     */
-    public WAMPlayer(Socket s) throws WhackException {
-        this.socket = s;
-        try{
-            scanner = new Scanner(socket.getInputStream());
-            printStream = new PrintStream(socket.getOutputStream());
-        }catch(IOException io){
-            throw new WhackException(io);
-        }
-
+     * @param connection the connection to the client
+     */
+    public WAMPlayer(WAMConnection connection) {
+        this.connection = connection;
+        connection.setListener(this);
     }
 
     /**
@@ -75,81 +77,175 @@ public class WAMPlayer implements WAMProtocol, Closeable {
      * @param players
      * @param player_number
      */
-    public void connect(ArrayList<Integer> scoreList, int rows, int cols, int players, int player_number){
+    public synchronized void connect(WAMScores scores, int rows, int cols, int players, int player_number){
         //WELCOME message includes #rows, #columns, #players, player#
         this.playerNumber = player_number;
-        this.scoreList = scoreList;
-        printStream.println(WELCOME + " " + rows + " " + cols + " " + players + " " + player_number);
+        this.scores = scores;
+        connection.send(encoder().welcome(rows, cols, players, player_number));
     }//from WAMProtocol.java
 
     /**
      * Sends the mole-up and its locations' message to the client.
      * @param col
      */
-    public void mole_up(int col) {
-        printStream.println(MOLE_UP + " " + col);
+    public synchronized void mole_up(int col) {
+        connection.write(encoder().moleUp(col));
     }
 
     /**
      * Sends the mole-down and its locations' message to the client.
      * @param col
      */
-    public void mole_down(int col) {
-        printStream.println(MOLE_DOWN + " " + col);
+    public synchronized void mole_down(int col) {
+        connection.write(encoder().moleDown(col));
         moleDownScore();
     }
 
     /**
      *when the whack happens, calculate the score accordingly.
+     * The game broadcasts the new scores at the end of its tick.
      */
     public void whackScore() {
-        tot_score += 2;
-        scoreList.set(playerNumber, tot_score);
-        sendScore();
+        scores.add(playerNumber, 2);
     }
 
     /**
      * Sends scores to client.
+     * @param text the SCORE message as a text line, encoded once for all players
+     * @param frame the SCORE message as a binary frame, encoded once for all players
      */
-    public void sendScore() {
-        String s = "";
-        for (int i = 0; i < scoreList.size(); i++) {
-            s += scoreList.get(i) + " ";
-        }
-        printStream.println(SCORE + " " + s);
+    public synchronized void sendScore(ByteBuffer text, ByteBuffer frame) {
+        connection.writeLatest(binary ? frame : text);
+    }
+
+    /**
+     * Send the messages written during this tick.
+     */
+    public void flush() {
+        connection.flush();
     }
     /**
      *when the whack does not happen, calculate the score accordingly.
+     * The game broadcasts the new scores at the end of its tick.
      */
     public void moleDownScore() {
-        tot_score = tot_score - 1;
-        scoreList.set(playerNumber, tot_score);
-        sendScore();
+        scores.add(playerNumber, -1);
     }
 
     /**
-     * Checks whether mole is whacked.
-     * @param col
-     * @return true, or false
-     */
-    public boolean isMadeWhack(int col) {
-        try {
-            String request = this.scanner.hasNext() ? this.scanner.next() : "";
-            if (!request.equals(WHACK)) return false;
-            String arguments = this.scanner.nextLine();                 //no such elements found error place
-            String[] fields = arguments.trim().split(" ");
-            int mole_num = Integer.parseInt(fields[0]);
-            int player_num = Integer.parseInt(fields[1]);
-            if (request.equals(WHACK) && mole_num == col) {
-                whackScore();
-                printStream.println(MOLE_DOWN + " " + col);
-                return true;
-            }
+     * Join a game; whacks sent from now on go to it.
+     * @param game the game
+     */
+    public void setGame(WAMGame game) {
+        this.game = game;
+    }
+
+    /**
+     * @return the player number
+     */
+    public int getPlayerNumber() {
+        return playerNumber;
+    }
+
+    /**
+     * The player whacked a mole that was up: score it and take the mole
+     * down on this player's board.
+     * @param col the mole number
+     */
+    public synchronized void whacked(int col) {
+        whackScore();
+        connection.write(encoder().moleDown(col));
+    }
+
+    /**
+     * Called by the connection when the client whacks. The whack is
+     * handed to the game right away instead of waiting to be polled.
+     * @param mole_num the mole number
+     * @param player_num the player number the client sent
+     */
+    @Override
+    public void onWhack(int mole_num, int player_num) {
+        WAMGame g = game;
+        if (g != null) {
+            g.whack(this, mole_num);
         }
-        catch(NoSuchElementException e){
-            System.err.println(e);
+    }
+
+    /**
+     * The player whacked a mole that dropped after the client saw it up:
+     * score it, and give back the point lost when it dropped.
+     */
+    public synchronized void whackedLate() {
+        whackScore();
+        scores.add(playerNumber, 1);
+    }
+
+    /**
+     * Ask the client for a PONG, to time the round trip. Only clients that
+     * switched to binary frames are asked: a text client may predate PING.
+     * @param now the nano time
+     */
+    public synchronized void ping(long now) {
+        if (!binary) return;
+        pingId++;
+        pingSent = now;
+        connection.write(encoder().ping(pingId));
+    }
+
+    /**
+     * Called by the connection when the client answers a PING. The round
+     * trip time is smoothed like TCP does, by an eighth of each change.
+     * @param id the number of the PING
+     */
+    @Override
+    public void onPong(int id) {
+        long sample;
+        synchronized (this) {
+            if (id != pingId || pingSent == 0) return;
+            sample = System.nanoTime() - pingSent;
+            pingSent = 0;
+            rtt = rtt == 0 ? sample : rtt + (sample - rtt) / 8;
         }
-        return false;
+        connection.metrics.getRtt().record(sample);
+    }
+
+    /**
+     * @return the smoothed round trip time to the client in nanoseconds,
+     *         0 while it is not known, and always for clients that are
+     *         not pinged
+     */
+    public long getRtt() {
+        return rtt;
+    }
+
+    /**
+     * Called by the connection when the client asks for binary frames.
+     * The answer is the last text line this client gets.
+     */
+    @Override
+    public synchronized void onBinary() {
+        if (binary) return;
+        connection.send(encoder().binaryRequest());
+        binary = true;
+        connection.setBinary(true);
+    }
+
+    /**
+     * @return the encoder for the framing this client speaks; the caller
+     *         holds the lock so the framing cannot change before the
+     *         message is queued
+     */
+    private WAMEncoder encoder() {
+        return WAMEncoder.local(binary);
+    }
+
+    /**
+     * Called by the connection once the client is gone.
+     * @param connection the connection
+     */
+    @Override
+    public void onClose(WAMConnection connection) {
+        game = null;
     }
 
     /**
@@ -158,34 +254,37 @@ public class WAMPlayer implements WAMProtocol, Closeable {
     /**
      * Inform the client that they've lost the game.
      */
-    public void lost(){printStream.println(GAME_LOST);}
+    public synchronized void lost(){connection.write(encoder().gameLost());}
 
     /**
      * Inform the client that they've won
      */
-    public void won(){printStream.println(GAME_WON);}
+    public synchronized void won(){connection.write(encoder().gameWon());}
 
     /**
      * Inform the client that the game ended in a draw.
      */
-    public void draw(){printStream.println(GAME_TIED); }
+    public synchronized void draw(){connection.write(encoder().gameTied()); }
 
     /**
      * Inform the client that an error has occured
      * @param error the message to be printed
      */
-    public void error(String error){printStream.println(ERROR + " " + error);}
+    public synchronized void error(String error){connection.send(encoder().error(error));}
+
+    /**
+     * @return true if the client is gone
+     */
+    public boolean isClosed() {
+        return connection.isClosed();
+    }
 
     /**
      * Close the connection
      */
     @Override
     public void close(){
-        try{
-            socket.close();
-        }catch(IOException wac){
-            System.out.println(wac);
-        }
+        connection.close();
     }
 
 }
@@ -0,0 +1,53 @@
+package server;
+
+import java.util.Arrays;
+
+/**
+ * Ranks the players of a game by their final scores, for any number of
+ * players. The scores are sorted once, highest first. The best score wins;
+ * if several players share it they tied to win, and everyone else lost.
+ *
+ * @author Daniel Cho
+ * @author Juan Patino
+ */
+public class WAMRanking {
+
+    /** Possible results of a player */
+    public enum Result {
+        WON, LOST, TIED
+    }
+
+    /** result of every player */
+    private final Result[] results;
+
+    /**
+     * Rank the players.
+     * @param scores the final scores in order of the players' numbers
+     */
+    public WAMRanking(int[] scores) {
+        int n = scores.length;
+        int[] sorted = scores.clone();
+        Arrays.sort(sorted);
+        //the best score is at the end, and so are the players who share it.
+        int winners = 0;
+        while (winners < n && sorted[n - 1 - winners] == sorted[n - 1]) {
+            winners++;
+        }
+        results = new Result[n];
+        for (int player = 0; player < n; player++) {
+            if (scores[player] != sorted[n - 1]) {
+                results[player] = Result.LOST;
+            } else {
+                results[player] = winners == 1 ? Result.WON : Result.TIED;
+            }
+        }
+    }
+
+    /**
+     * @param player the player number
+     * @return whether the player won, lost or tied
+     */
+    public Result result(int player) {
+        return results[player];
+    }
+}
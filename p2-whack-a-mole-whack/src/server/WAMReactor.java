@@ -0,0 +1,205 @@
+package server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An I/O thread that multiplexes many {@link WAMChannelConnection}s over one
+ * {@link Selector}. The server runs one or a few of these; one of them also
+ * accepts new clients and hands them out to the others in turn.
+ *
+ * @author Daniel Cho
+ * @author Juan Patino
+ */
+public class WAMReactor implements Runnable, Closeable {
+
+    /**
+     * Told about every accepted client.
+     */
+    public interface Acceptor {
+        /**
+         * Called on the I/O thread before the connection starts reading,
+         * so this is the place to set its listener.
+         * @param connection the new connection
+         */
+        void onConnect(WAMConnection connection);
+    }
+
+    /** the selector of this I/O thread */
+    private final Selector selector;
+    /** channels handed to this reactor and not yet registered */
+    private final Queue<WAMChannelConnection> newConnections = new ConcurrentLinkedQueue<>();
+    /** connections with output to write */
+    private final Queue<WAMChannelConnection> writes = new ConcurrentLinkedQueue<>();
+    /** true once the selector was woken up and has not yet looked at the writes */
+    private final AtomicBoolean woken = new AtomicBoolean();
+    /** told about accepted clients */
+    private final Acceptor acceptor;
+    /** the metrics of the server */
+    private final WAMMetrics metrics;
+    /** reactors accepted channels are spread over, null if this one does not accept */
+    private WAMReactor[] group;
+    /** the next reactor of the group to get an accepted channel */
+    private int next;
+    /** sentinel used to control the main loop */
+    private volatile boolean go = true;
+
+    /**
+     * Create a reactor.
+     * @param acceptor told about accepted clients
+     * @param metrics counts the connections and their messages
+     * @throws IOException if the selector cannot be opened
+     */
+    public WAMReactor(Acceptor acceptor, WAMMetrics metrics) throws IOException {
+        this.selector = Selector.open();
+        this.acceptor = acceptor;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Make this reactor accept clients on a server channel.
+     * @param server the bound server channel
+     * @param group the reactors to spread the accepted clients over
+     * @throws IOException if the channel cannot be registered
+     */
+    public void listen(ServerSocketChannel server, WAMReactor[] group) throws IOException {
+        this.group = group;
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Ask the I/O thread to write the pending output of a connection.
+     * @param connection the connection
+     */
+    void requestWrite(WAMChannelConnection connection) {
+        writes.add(connection);
+        if (!woken.getAndSet(true)) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Hand an accepted channel over to this reactor.
+     * @param channel the channel
+     * @throws IOException if the channel cannot be made non-blocking
+     */
+    private void assign(SocketChannel channel) throws IOException {
+        channel.configureBlocking(false);
+        newConnections.add(new WAMChannelConnection(channel, this, metrics));
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (go) {
+            try {
+                selector.select();
+                woken.set(false);
+                register();
+                flush();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handle(key);
+                }
+            } catch (IOException e) {
+                System.err.println(e);
+            }
+        }
+        flush();
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof WAMChannelConnection) {
+                ((WAMChannelConnection) key.attachment()).closeNow();
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            // squash
+        }
+    }
+
+    /**
+     * Register the channels handed to this reactor.
+     */
+    private void register() {
+        WAMChannelConnection connection;
+        while ((connection = newConnections.poll()) != null) {
+            acceptor.onConnect(connection);
+            try {
+                SelectionKey key = connection.channel().register(selector, SelectionKey.OP_READ, connection);
+                connection.registered(key);
+            } catch (IOException e) {
+                connection.closeNow();
+            }
+        }
+    }
+
+    /**
+     * Write the output queued since the last pass.
+     */
+    private void flush() {
+        WAMChannelConnection connection;
+        while ((connection = writes.poll()) != null) {
+            if (connection.isClosed()) continue;
+            connection.writePending();
+        }
+    }
+
+    /**
+     * Handle a ready key.
+     * @param key the key
+     */
+    private void handle(SelectionKey key) {
+        if (!key.isValid()) return;
+        if (key.isAcceptable()) {
+            accept((ServerSocketChannel) key.channel());
+            return;
+        }
+        WAMChannelConnection connection = (WAMChannelConnection) key.attachment();
+        try {
+            if (key.isReadable()) connection.read();
+            if (key.isValid() && key.isWritable()) connection.writePending();
+        } catch (IOException e) {
+            connection.closeNow();
+        }
+    }
+
+    /**
+     * Accept a waiting client and give it to the next reactor of the group.
+     * @param server the server channel
+     */
+    private void accept(ServerSocketChannel server) {
+        try {
+            SocketChannel channel = server.accept();
+            if (channel == null) return;
+            //messages are batched per tick, so there is nothing for Nagle to wait for.
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            WAMReactor target = group[next];
+            next = (next + 1) % group.length;
+            target.assign(channel);
+        } catch (IOException e) {
+            System.err.println(e);
+        }
+    }
+
+    /**
+     * Stop the I/O thread; its connections are closed.
+     */
+    @Override
+    public void close() {
+        go = false;
+        selector.wakeup();
+    }
+}
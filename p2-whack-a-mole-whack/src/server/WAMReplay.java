@@ -0,0 +1,337 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+/**
+ * Plays a game again from its {@link WAMGameLog}. The game is built from
+ * the header with players that send nowhere, and a clock that is set to
+ * the time of each record instead of running: a timer goes off when the
+ * log says its event was handled, and a whack comes in when the log says
+ * it did. The replayed game logs what it does too, and the replay matches
+ * if that log is the same, byte for byte, as the one played back. Since
+ * nothing waits on the clock a game replays much faster than it played.
+ *
+ * @author Daniel Cho
+ * @author Juan Patino
+ */
+public class WAMReplay {
+
+    /** the log */
+    private final ByteBuffer log;
+    private final long seed;
+    private final int rows;
+    private final int cols;
+    private final int players;
+    private final int game_time;
+    private final int moles;
+    private final int score_interval;
+    private final int tolerance;
+    private final long start;
+    /** where the records start */
+    private final int records;
+
+    /**
+     * Read a log file.
+     * @param file the file
+     * @throws IOException if the file cannot be read or is not a game log
+     */
+    public WAMReplay(Path file) throws IOException {
+        this(ByteBuffer.wrap(Files.readAllBytes(file)));
+    }
+
+    /**
+     * Read a log.
+     * @param log the log, from its position to its limit
+     * @throws IOException if it is not a game log
+     */
+    public WAMReplay(ByteBuffer log) throws IOException {
+        this.log = log.slice();
+        ByteBuffer in = this.log.duplicate();
+        try {
+            if (in.getInt() != WAMGameLog.MAGIC || in.get() != WAMGameLog.VERSION) {
+                throw new IOException("not a game log");
+            }
+            seed = in.getLong();
+            rows = (int) WAMGameLog.getVarlong(in);
+            cols = (int) WAMGameLog.getVarlong(in);
+            players = (int) WAMGameLog.getVarlong(in);
+            game_time = (int) WAMGameLog.getVarlong(in);
+            moles = (int) WAMGameLog.getVarlong(in);
+            score_interval = (int) WAMGameLog.getVarlong(in);
+            tolerance = (int) WAMGameLog.getVarlong(in);
+            start = WAMGameLog.unzigzag(WAMGameLog.getVarlong(in));
+        } catch (RuntimeException e) {
+            throw new IOException("not a game log", e);
+        }
+        records = in.position();
+    }
+
+    /**
+     * @return the seed of the game
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Play the game again.
+     * @return what came of it
+     * @throws IOException if the log is broken
+     */
+    public Result replay() throws IOException {
+        long begun = System.nanoTime();
+        WAMMetrics metrics = new WAMMetrics();
+        ArrayList<WAMPlayer> playerList = new ArrayList<>(players);
+        WAMScores scores = new WAMScores(players);
+        for (int i = 0; i < players; i++) {
+            WAMPlayer player = new WAMPlayer(new Sink(metrics));
+            player.connect(scores, rows, cols, players, i);
+            playerList.add(player);
+        }
+        ByteArrayOutputStream replayed = new ByteArrayOutputStream(log.remaining());
+        Clock clock = new Clock();
+        clock.now = start;
+        WAMGame.Settings settings = new WAMGame.Settings();
+        settings.moles = moles;
+        settings.score_interval = score_interval;
+        settings.tolerance = tolerance;
+        settings.seed = seed;
+        settings.clock = clock;
+        settings.metrics = metrics;
+        WAMGame game = new WAMGame(playerList, scores, rows, cols, game_time, settings);
+        game.setLog(new WAMGameLog(Channels.newChannel(replayed), Runnable::run));
+
+        ByteBuffer in = log.duplicate();
+        in.position(records);
+        long time = start;
+        int count = 0;
+        game.begin();
+        try {
+            while (in.hasRemaining()) {
+                byte type = in.get();
+                time += WAMGameLog.unzigzag(WAMGameLog.getVarlong(in));
+                clock.now = time;
+                count++;
+                switch (type) {
+                    case WAMGameLog.UP:
+                        WAMGameLog.getVarlong(in);
+                        game.handle(clock.take(MoleEvent.Type.UP, -1));
+                        break;
+                    case WAMGameLog.DOWN:
+                        int mole = (int) WAMGameLog.unzigzag(WAMGameLog.getVarlong(in));
+                        game.handle(clock.take(MoleEvent.Type.DOWN, mole));
+                        break;
+                    case WAMGameLog.WHACK:
+                        WAMPlayer player = playerList.get((int) WAMGameLog.getVarlong(in));
+                        int col = (int) WAMGameLog.unzigzag(WAMGameLog.getVarlong(in));
+                        long received = time - WAMGameLog.unzigzag(WAMGameLog.getVarlong(in));
+                        long rtt = WAMGameLog.unzigzag(WAMGameLog.getVarlong(in));
+                        WAMGameLog.getVarlong(in);
+                        game.handle(new MoleEvent(MoleEvent.Type.WHACK, col, received, player, rtt));
+                        break;
+                    case WAMGameLog.SCORE:
+                        //sent at the end of a tick, the replay sends its own.
+                        long n = WAMGameLog.getVarlong(in);
+                        for (long i = 0; i < n; i++) {
+                            WAMGameLog.getVarlong(in);
+                        }
+                        break;
+                    case WAMGameLog.SCORE_DUE:
+                        game.handle(clock.take(MoleEvent.Type.SCORE, -1));
+                        break;
+                    case WAMGameLog.PING:
+                        game.handle(clock.take(MoleEvent.Type.PING, -1));
+                        break;
+                    case WAMGameLog.TICK:
+                        game.endTick();
+                        break;
+                    case WAMGameLog.END:
+                        //the tick of the end is finished too, so play on.
+                        game.handle(clock.take(MoleEvent.Type.END, -1));
+                        break;
+                    default:
+                        throw new IOException("unknown record " + type + " at record " + count);
+                }
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("broken log at record " + count, e);
+        } finally {
+            game.finish();
+        }
+        long elapsed = System.nanoTime() - begun;
+
+        byte[] bytes = replayed.toByteArray();
+        ByteBuffer original = log.duplicate();
+        int differs = original.mismatch(ByteBuffer.wrap(bytes));
+        return new Result(count, time - start, elapsed, differs);
+    }
+
+    /**
+     * What came of a replay.
+     */
+    public static class Result {
+        private final int records;
+        private final long gameNanos;
+        private final long replayNanos;
+        private final int differs;
+
+        Result(int records, long gameNanos, long replayNanos, int differs) {
+            this.records = records;
+            this.gameNanos = gameNanos;
+            this.replayNanos = replayNanos;
+            this.differs = differs;
+        }
+
+        /** @return number of records played back */
+        public int getRecords() {
+            return records;
+        }
+
+        /** @return nanoseconds from the start of the game to its last record */
+        public long getGameNanos() {
+            return gameNanos;
+        }
+
+        /** @return nanoseconds the replay took */
+        public long getReplayNanos() {
+            return replayNanos;
+        }
+
+        /** @return the first byte where the replayed log differs, -1 if it matches */
+        public int getDiffers() {
+            return differs;
+        }
+
+        /** @return true if the replayed game did what the logged one did */
+        public boolean matches() {
+            return differs < 0;
+        }
+    }
+
+    /**
+     * A clock that shows the time it is set to. Its timers never go off
+     * by themselves; the replay takes them when the log says they did.
+     */
+    private static class Clock implements WAMClock {
+        /** the time */
+        long now;
+        /** timers not taken yet */
+        private final ArrayList<Timer> timers = new ArrayList<>();
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+
+        @Override
+        public Future<?> schedule(MoleEvent event, long nanos, WAMGame game) {
+            Timer timer = new Timer(event);
+            timers.add(timer);
+            return timer;
+        }
+
+        /**
+         * Take the timer of an event that is due, the earliest one if
+         * there are several.
+         * @param type the type of the event
+         * @param mole the mole of the event
+         * @return the event
+         * @throws IllegalStateException if no such timer is pending
+         */
+        MoleEvent take(MoleEvent.Type type, int mole) {
+            int earliest = -1;
+            for (int i = 0; i < timers.size(); i++) {
+                Timer timer = timers.get(i);
+                if (timer.isCancelled()) {
+                    timers.remove(i--);
+                    if (earliest > i) earliest--;
+                } else if (timer.event.type == type && timer.event.mole == mole
+                        && (earliest < 0 || timer.event.deadline - timers.get(earliest).event.deadline < 0)) {
+                    earliest = i;
+                }
+            }
+            if (earliest < 0) {
+                throw new IllegalStateException("no " + type + " timer for mole " + mole);
+            }
+            return timers.remove(earliest).event;
+        }
+    }
+
+    /**
+     * A timer of the replay clock.
+     */
+    private static class Timer extends CompletableFuture<Void> {
+        final MoleEvent event;
+
+        Timer(MoleEvent event) {
+            this.event = event;
+        }
+    }
+
+    /**
+     * A connection that sends nowhere.
+     */
+    private static class Sink extends WAMConnection {
+
+        Sink(WAMMetrics metrics) {
+            super(metrics);
+        }
+
+        @Override
+        public synchronized void flush() {
+            metrics.written(out.position());
+            out.clear();
+        }
+
+        @Override
+        public void close() {
+            closeNow();
+        }
+
+        @Override
+        void disconnect() {
+        }
+    }
+
+    public static void main(String[] args) {
+        int times = 1;
+        int first = 0;
+        if (args.length > 0 && args[0].startsWith("--times=")) {
+            times = Integer.parseInt(args[0].substring("--times=".length()));
+            first = 1;
+        }
+        if (first >= args.length) {
+            System.out.println("Usage: [--times=n]  log-file...");
+            System.exit(1);
+        }
+        boolean matched = true;
+        for (int i = first; i < args.length; i++) {
+            try {
+                WAMReplay replay = new WAMReplay(Paths.get(args[i]));
+                Result result = null;
+                for (int t = 0; t < times; t++) {
+                    result = replay.replay();
+                }
+                System.out.printf("%s: seed %d, %d records, %.1f s of game replayed in %.2f ms (%.0fx), %s%n",
+                        args[i], replay.getSeed(), result.getRecords(),
+                        result.getGameNanos() / 1e9, result.getReplayNanos() / 1e6,
+                        (double) result.getGameNanos() / Math.max(1, result.getReplayNanos()),
+                        result.matches() ? "matches" : "differs at byte " + result.getDiffers());
+                matched &= result.matches();
+            } catch (IOException e) {
+                System.out.println(args[i] + ": " + e.getMessage());
+                matched = false;
+            }
+        }
+        System.exit(matched ? 0 : 1);
+    }
+}
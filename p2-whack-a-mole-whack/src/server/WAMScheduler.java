@@ -0,0 +1,99 @@
+package server;
+
+import java.io.Closeable;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The timers of all games of a server, run by a small fixed number of
+ * threads. A timer only hands an event to its game when it is due, so the
+ * threads never sleep on behalf of a mole and their number does not grow
+ * with the number of games or moles.
+ *
+ * @author Daniel Cho
+ * @author Juan Patino
+ */
+public class WAMScheduler implements WAMClock, Closeable {
+
+    /** scheduler of games created without one */
+    private static WAMScheduler defaultScheduler;
+
+    /** runs the timers */
+    private final ScheduledThreadPoolExecutor executor;
+
+    /**
+     * Create a scheduler.
+     * @param threads number of timer threads
+     */
+    public WAMScheduler(int threads) {
+        AtomicInteger count = new AtomicInteger();
+        this.executor = new ScheduledThreadPoolExecutor(threads, r -> {
+            Thread t = new Thread(r, "WAMScheduler-" + count.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+        //cancelled timers leave the queue at once, so its size is the
+        //number of live timers.
+        this.executor.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * @return a scheduler with one timer thread for games that are not
+     *         run by a server
+     */
+    public static synchronized WAMScheduler getDefault() {
+        if (defaultScheduler == null) {
+            defaultScheduler = new WAMScheduler(1);
+        }
+        return defaultScheduler;
+    }
+
+    /**
+     * Run a task once a delay is over.
+     * @param task what to do; should be quick, like queueing an event
+     * @param delay the delay
+     * @param unit unit of the delay
+     * @return the timer, which can be cancelled
+     */
+    public ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        return executor.schedule(task, delay, unit);
+    }
+
+    /**
+     * @return {@link System#nanoTime()}
+     */
+    @Override
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Queue an event for a game once a delay is over.
+     * @param event the event
+     * @param nanos the delay in nanoseconds
+     * @param game the game that gets the event
+     * @return the timer, which can be cancelled
+     */
+    @Override
+    public Future<?> schedule(MoleEvent event, long nanos, WAMGame game) {
+        return schedule(() -> game.due(event), nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return number of timers scheduled and not yet run
+     */
+    public int getLiveTimers() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Stop the timer threads; pending timers are dropped.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
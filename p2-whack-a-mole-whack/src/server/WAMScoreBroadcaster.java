@@ -0,0 +1,111 @@
+package server;
+
+import common.WAMEncoder;
+import common.WAMProtocol;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the scores of a game to all of its players. Score changes only mark
+ * the scores dirty; at the end of a game tick one SCORE message with every
+ * player's score goes to every player, no matter how many scores changed.
+ * The message is encoded once as text and once as a binary frame.
+ * A minimum interval between two broadcasts can limit the rate further.
+ *
+ * @author Daniel Cho
+ * @author Juan Patino
+ */
+public class WAMScoreBroadcaster implements WAMProtocol {
+
+    /** the players of the game */
+    private final ArrayList<WAMPlayer> players;
+    /** the scores of the game */
+    private final WAMScores scores;
+    /** the scores copied out of the list, reused for every broadcast */
+    private final int[] snapshot;
+    /** least time between two broadcasts, in nanoseconds */
+    private final long interval;
+    /** true when a score changed since the last broadcast */
+    private boolean dirty;
+    /** nano time of the last broadcast, if there was one */
+    private long lastSent;
+    /** number of SCORE messages broadcast */
+    private long broadcasts;
+
+    /**
+     * Create a broadcaster.
+     * @param players the players of the game
+     * @param scores the scores of the game
+     * @param intervalMillis least time between two broadcasts, 0 to send
+     *                       once per tick
+     */
+    public WAMScoreBroadcaster(ArrayList<WAMPlayer> players, WAMScores scores, int intervalMillis) {
+        this.players = players;
+        this.scores = scores;
+        this.snapshot = new int[scores.size()];
+        this.interval = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+    }
+
+    /**
+     * Note that a score changed.
+     */
+    public void markDirty() {
+        dirty = true;
+    }
+
+    /**
+     * @return number of SCORE messages broadcast so far
+     */
+    public long getBroadcasts() {
+        return broadcasts;
+    }
+
+    /**
+     * @return the scores of the last broadcast; the array is reused
+     */
+    public int[] getSent() {
+        return snapshot;
+    }
+
+    /**
+     * Called at the end of a tick: broadcast the scores if they changed and
+     * the interval allows it.
+     * @param now the current nano time
+     * @return 0 if nothing is left to send, else the nano time at which the
+     *         pending scores may be sent
+     */
+    public long flush(long now) {
+        if (!dirty) return 0;
+        long due = lastSent + interval;
+        if (broadcasts > 0 && now - due < 0) return due;
+        send(now);
+        return 0;
+    }
+
+    /**
+     * Broadcast the scores right away if they changed, e.g. before the
+     * game result is sent.
+     * @param now the current nano time
+     */
+    public void flushNow(long now) {
+        if (dirty) send(now);
+    }
+
+    /**
+     * Encode the SCORE message once and send it to every player.
+     * @param now the current nano time
+     */
+    private void send(long now) {
+        scores.snapshot(snapshot);
+        ByteBuffer text = WAMEncoder.local(false).score(snapshot, snapshot.length);
+        ByteBuffer frame = WAMEncoder.local(true).score(snapshot, snapshot.length);
+        for (int i = 0; i < players.size(); i++) {
+            players.get(i).sendScore(text, frame);
+        }
+        dirty = false;
+        lastSent = now;
+        broadcasts++;
+    }
+}
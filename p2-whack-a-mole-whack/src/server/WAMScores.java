@@ -0,0 +1,84 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * The scores of the players of one game. Every player's counter sits on its
+ * own cache line of an {@link AtomicIntegerArray}, so updates from different
+ * threads neither race nor slow each other down through false sharing, and
+ * no score is ever boxed. Readers copy all scores into an int array.
+ *
+ * @author Daniel Cho
+ * @author Juan Patino
+ */
+public class WAMScores {
+
+    /** ints between two counters: 16 ints are 64 bytes, one cache line */
+    private static final int STRIDE = 16;
+
+    /** the counters, one every STRIDE slots, after one line of padding */
+    private final AtomicIntegerArray counters;
+    /** number of players */
+    private final int size;
+
+    /**
+     * Create the scores of a game, all zero.
+     * @param players number of players
+     */
+    public WAMScores(int players) {
+        this.size = players;
+        this.counters = new AtomicIntegerArray((players + 2) * STRIDE);
+    }
+
+    /**
+     * @return number of players
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Change the score of a player.
+     * @param player the player number
+     * @param delta points to add, negative to subtract
+     * @return the new score
+     */
+    public int add(int player, int delta) {
+        return counters.addAndGet(index(player), delta);
+    }
+
+    /**
+     * @param player the player number
+     * @return the score of the player
+     */
+    public int get(int player) {
+        return counters.get(index(player));
+    }
+
+    /**
+     * Copy every score into an array.
+     * @param into where to copy, at least {@link #size()} long
+     * @return the array
+     */
+    public int[] snapshot(int[] into) {
+        for (int i = 0; i < size; i++) {
+            into[i] = counters.get(index(i));
+        }
+        return into;
+    }
+
+    /**
+     * @return a new array with every score
+     */
+    public int[] snapshot() {
+        return snapshot(new int[size]);
+    }
+
+    /**
+     * @param player the player number
+     * @return slot of the player's counter
+     */
+    private static int index(int player) {
+        return (player + 1) * STRIDE;
+    }
+}
@@ -1,91 +1,560 @@
 package server;
+import common.WAMEncoder;
 import common.WAMProtocol;
 import common.WhackException;
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.SplittableRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 /**
  * The {@link WAMServer} waits for incoming client connections and
- * pairs them off to play {@link WAMServer games}.
+ * pairs them off to play {@link WAMServer games}. By default all client
+ * sockets are served by a few {@link WAMReactor} I/O threads instead of one
+ * thread each; the {@link Mode} chosen at startup can instead give every
+ * connection a reader thread of its own, platform or virtual.
+ * Connected clients wait in a lobby until there are enough of them for a
+ * match; every match is played on a bounded pool of game threads while the
+ * lobby keeps accepting. Once every game thread is taken, a full match
+ * stays in the lobby until a game ends.
  *
  * @author Daniel Cho
  * @author Juan Patino
  */
-public class WAMServer implements WAMProtocol, Runnable {
+public class WAMServer implements WAMProtocol, WAMReactor.Acceptor, Runnable {
 
-    private ServerSocket serverSocket;
+    /**
+     * How the client connections and the games are run.
+     */
+    public enum Mode {
+        /** a few reactor threads multiplex all connections */
+        NIO,
+        /** every connection and every game gets a platform thread */
+        PLATFORM,
+        /** every connection and every game gets a virtual thread, needs Java 21 */
+        VIRTUAL
+    }
+
+    /** number of I/O threads multiplexing the client channels */
+    private static final int IO_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+
+    /** number of threads running the mole timers of all games */
+    private static final int TIMER_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+
+    /** default number of games played at the same time */
+    private static final int MAX_GAMES = 256;
+
+    /** default number of moles that may be up at the same time, one like the first version of the game */
+    private static final int MOLES = 1;
+
+    /** clients that may wait to be accepted, enough for a burst of connections */
+    private static final int BACKLOG = 4096;
+
+    private ServerSocketChannel serverChannel;
+    /** the I/O threads, only in {@link Mode#NIO} */
+    private WAMReactor[] reactors = new WAMReactor[0];
+    private Mode mode;
+    /** players waiting for a match, in order of arrival; guarded by this */
+    private ArrayDeque<WAMPlayer> lobby = new ArrayDeque<>();
+    /** runs the games */
+    private ThreadPoolExecutor games;
+    /** games started and not over yet; guarded by this */
+    private int playing;
+    /** runs the mole timers of every game */
+    private WAMScheduler scheduler = new WAMScheduler(TIMER_THREADS);
+    /** number of the next game */
+    private AtomicInteger gameCount = new AtomicInteger();
+    /** counts games, connections and messages */
+    private WAMMetrics metrics = new WAMMetrics();
+    /** serves the metrics over HTTP, null if it is off */
+    private WAMMetricsEndpoint endpoint;
+    /** name of the metrics in JMX, null if they are not registered */
+    private ObjectName metricsName;
+    private int metrics_port;
+    /** most bytes that may wait on a connection */
+    private int max_queue = WAMConnection.MAX_QUEUE;
+    /** how clients that fall behind are treated */
+    private WAMConnection.SlowConsumer slow_consumer = WAMConnection.SlowConsumer.LATEST_SCORE;
+    /** milliseconds a mole's window is stretched by when judging whacks */
+    private int tolerance = WAMGame.TOLERANCE;
+    /** hands out the seeds of the games, in the order they start; guarded by this */
+    private SplittableRandom seeds = new SplittableRandom();
+    /** directory the games are logged to, null if they are not */
+    private Path log_dir;
+    /** moles that may be up at the same time */
+    private int moles = MOLES;
     private int rows;
     private int cols;
     private int players;
     private int game_time;
+    private int max_games = MAX_GAMES;
+    private int score_interval;
     private int port;
-    private ArrayList<Integer> scoreList = new ArrayList<>();
     /**
      * Creates a new {@link WAMServer} that listens for incoming
      * connections on the specified port.
      *
      * @param port The port
-     * @throws WhackException If there is an error making the ServerSocket
+     * @throws WhackException If there is an error making the server channel
      *
      */
     public WAMServer(int port) throws WhackException {
+        this(port, Mode.NIO);
+    }
+
+    /**
+     * Creates a new {@link WAMServer} that listens for incoming
+     * connections on the specified port and serves them in the given mode.
+     * Without virtual threads in the running Java the {@link Mode#VIRTUAL}
+     * mode falls back to platform threads.
+     *
+     * @param port The port, 0 for any free port
+     * @param mode how the connections and games are run
+     * @throws WhackException If there is an error making the server channel
+     */
+    public WAMServer(int port, Mode mode) throws WhackException {
         this.port = port;
+        if (mode == Mode.VIRTUAL && virtualThreads("WAMServer") == null) {
+            System.out.println("Virtual threads need Java 21, using platform threads.");
+            mode = Mode.PLATFORM;
+        }
+        this.mode = mode;
         try{
-            serverSocket = new ServerSocket(port);
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(port), BACKLOG);
+            if (mode == Mode.NIO) {
+                reactors = new WAMReactor[IO_THREADS];
+                for (int i = 0; i < reactors.length; i++) {
+                    reactors[i] = new WAMReactor(this, metrics);
+                }
+            }
         }catch (IOException e){
             throw new WhackException(e);
         }
     }
 
+    /**
+     * Creates a new {@link WAMServer} with all of its game settings.
+     *
+     * @param port The port, 0 for any free port
+     * @param mode how the connections and games are run
+     * @param rows rows of the board
+     * @param cols columns of the board
+     * @param players players in every match
+     * @param game_time length of a game in seconds
+     * @param max_games games played at the same time
+     * @param score_interval least milliseconds between score messages, 0 for every tick
+     * @throws WhackException If there is an error making the server channel
+     */
+    public WAMServer(int port, Mode mode, int rows, int cols, int players, int game_time,
+                     int max_games, int score_interval) throws WhackException {
+        this(port, mode);
+        this.rows = rows;
+        this.cols = cols;
+        this.players = players;
+        this.game_time = game_time;
+        this.max_games = max_games;
+        this.score_interval = score_interval;
+    }
+
     public static void main(String[] args) throws WhackException{
+        Mode mode = Mode.NIO;
+        int metrics_port = 0;
+        int max_queue = WAMConnection.MAX_QUEUE;
+        WAMConnection.SlowConsumer slow_consumer = WAMConnection.SlowConsumer.LATEST_SCORE;
+        int tolerance = WAMGame.TOLERANCE;
+        SplittableRandom seeds = new SplittableRandom();
+        Path log_dir = null;
+        int moles = MOLES;
+        int max_games = MAX_GAMES;
+        int score_interval = 0;
+        int first = 0;
+        try {
+            for (; first < args.length && args[first].startsWith("--"); first++) {
+                String value = args[first].substring(args[first].indexOf('=') + 1);
+                if (args[first].startsWith("--mode=")) {
+                    mode = Mode.valueOf(value.toUpperCase());
+                } else if (args[first].startsWith("--metrics=")) {
+                    metrics_port = Integer.parseInt(value);
+                } else if (args[first].startsWith("--queue=")) {
+                    max_queue = Integer.parseInt(value);
+                } else if (args[first].startsWith("--slow=")) {
+                    slow_consumer = WAMConnection.SlowConsumer.valueOf(value.replace('-', '_').toUpperCase());
+                } else if (args[first].startsWith("--tolerance=")) {
+                    tolerance = Integer.parseInt(value);
+                } else if (args[first].startsWith("--seed=")) {
+                    seeds = new SplittableRandom(Long.parseLong(value));
+                } else if (args[first].startsWith("--moles=")) {
+                    moles = Integer.parseInt(value);
+                    if (moles < 1) throw new IllegalArgumentException();
+                } else if (args[first].startsWith("--log=")) {
+                    log_dir = Paths.get(value);
+                } else if (args[first].startsWith("--max-games=")) {
+                    max_games = Integer.parseInt(value);
+                    if (max_games < 1) throw new IllegalArgumentException();
+                } else if (args[first].startsWith("--score-interval=")) {
+                    score_interval = Integer.parseInt(value);
+                    if (score_interval < 0) throw new IllegalArgumentException();
+                } else {
+                    first = args.length + 1;
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            first = args.length + 1;
+        }
+        args = first <= args.length ? Arrays.copyOfRange(args, first, args.length) : new String[0];
         if(args.length != 5){
-            System.out.println("Usage: game-port#  #rows  #columns  #players  game-duration-seconds");
+            System.out.println("Usage: [--mode=nio|platform|virtual]  [--metrics=http-port#]  [--queue=bytes]  [--slow=latest-score|disconnect]  [--tolerance=ms]  [--seed=n]  [--moles=n]  [--log=dir]  [--max-games=n]  [--score-interval=ms]  game-port#  #rows  #columns  #players  game-duration-seconds");
             System.exit(1);
         }
         //takes arguments: game-port#, #rows, #columns, #players, game-duration-seconds
         int port = Integer.parseInt(args[0]);
-        WAMServer whack = new WAMServer(port);
-        whack.rows = Integer.parseInt(args[1]);
-        whack.cols = Integer.parseInt(args[2]);
-        whack.players = Integer.parseInt(args[3]);
-        whack.game_time = Integer.parseInt(args[4]);
+        WAMServer whack = new WAMServer(port, mode,
+                Integer.parseInt(args[1]),
+                Integer.parseInt(args[2]),
+                Integer.parseInt(args[3]),
+                Integer.parseInt(args[4]),
+                max_games,
+                score_interval);
+        whack.metrics_port = metrics_port;
+        whack.max_queue = max_queue;
+        whack.slow_consumer = slow_consumer;
+        whack.tolerance = tolerance;
+        whack.seeds = seeds;
+        whack.log_dir = log_dir;
+        whack.moles = moles;
         whack.run();
     }
 
     /**
-     * initialize the score as zero for each player
+     * initialize the score as zero for each player of a new match
+     * @return the scores of the match
      */
-    public void initialize() {
-        for (int i = 0; i < players; i++) {
-            scoreList.add(i , 0);
-        }
+    public WAMScores initialize() {
+        return new WAMScores(players);
     }
 
     @Override
     public void run(){
 
-        //try for loop for every player to connect to server.
+        //start the game pool and the I/O threads, then keep serving the lobby.
+        Thread[] threads = new Thread[reactors.length];
+        //a game is only started once one is over, so the queue only holds
+        //games whose thread is just finishing the last one.
+        games = new ThreadPoolExecutor(max_games, max_games, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(max_games), threads("WAMGame"));
+        publishMetrics();
+        if (mode != Mode.NIO) {
+            try {
+                accept();
+            } finally {
+                close();
+            }
+            return;
+        }
         try {
-            ArrayList<WAMPlayer> playerList = new ArrayList<WAMPlayer>();
-            initialize();
-            for(int i = 0; i < players; i ++){
-                System.out.println("Waiting for players [0/" + players + "]");
-                Socket sock = serverSocket.accept();
-                WAMPlayer p = new WAMPlayer(sock);
-                playerList.add(p);
-                p.connect(scoreList, rows, cols, players, i);
-                System.out.println("Player [" + (i + 1) + "/" + players + "] here!");
+            reactors[0].listen(serverChannel, reactors);
+            for (int i = 0; i < reactors.length; i++) {
+                threads[i] = new Thread(reactors[i], "WAMReactor-" + i);
+                threads[i].start();
+            }
+            System.out.println("Waiting for players [0/" + players + "]");
+            for (Thread thread : threads) {
+                thread.join();
             }
-            WAMGame game = new WAMGame(playerList, scoreList, rows, cols, game_time);
-            new Thread(game).run();
         } catch (IOException io) {
             System.err.println("OOPS");
             io.printStackTrace();
-        } catch (WhackException e) {
-            System.err.println("Could not initialize player!");
-            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Accept clients one by one and start a reader thread for each, until
+     * the server channel is closed.
+     */
+    private void accept() {
+        ThreadFactory readers = threads("WAMPlayer");
+        ThreadFactory writers = threads("WAMWriter");
+        System.out.println("Waiting for players [0/" + players + "]");
+        while (serverChannel.isOpen()) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                WAMBlockingConnection connection = new WAMBlockingConnection(channel, metrics, writers);
+                onConnect(connection);
+                readers.newThread(connection).start();
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                System.err.println(e);
+            }
+        }
+    }
+
+    /**
+     * Register the metrics with JMX, and serve them over HTTP if a port
+     * was given. The server runs without them if that fails.
+     */
+    private void publishMetrics() {
+        try {
+            ObjectName name = new ObjectName("whackamole:type=WAMServer,port=" + getPort());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+            metricsName = name;
+        } catch (JMException e) {
+            System.err.println("No JMX metrics: " + e);
+        }
+        if (metrics_port > 0) {
+            try {
+                endpoint = new WAMMetricsEndpoint(metrics_port, metrics);
+                System.out.println("Metrics at http://localhost:" + endpoint.getPort() + "/metrics");
+            } catch (IOException e) {
+                System.err.println("No metrics endpoint: " + e);
+            }
+        }
+    }
+
+    /**
+     * Make the threads of the games or connections as the mode says.
+     * @param name name of the threads
+     * @return the thread factory
+     */
+    private ThreadFactory threads(String name) {
+        if (mode == Mode.VIRTUAL) {
+            return virtualThreads(name);
+        }
+        return r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * Look up the virtual thread builder of Java 21. The server is built for
+     * older Java too, so it is found by reflection.
+     * @param name prefix of the thread names
+     * @return a factory of virtual threads, or null if there are none
+     */
+    static ThreadFactory virtualThreads(String name) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> ofVirtual = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            builder = ofVirtual.getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+            return (ThreadFactory) ofVirtual.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the mode the server runs in
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return the port the server listens on
+     */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * @return the metrics of the server
+     */
+    public WAMMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the scheduler running the mole timers
+     */
+    public WAMScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Stop accepting clients and stop the games.
+     */
+    public void close() {
+        for (WAMReactor reactor : reactors) {
+            reactor.close();
+        }
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            // squash
+        }
+        if (games != null) {
+            games.shutdownNow();
+        }
+        scheduler.close();
+        if (endpoint != null) {
+            endpoint.close();
+        }
+        if (metricsName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+            } catch (JMException e) {
+                // squash
+            }
+            metricsName = null;
+        }
+    }
+
+    /**
+     * Called on an I/O thread, or the accepting thread, for every client that connects. The client
+     * joins the lobby, and a match starts once enough clients are there.
+     * @param connection the new connection
+     */
+    @Override
+    public void onConnect(WAMConnection connection) {
+        connection.setSlowConsumer(max_queue, slow_consumer);
+        WAMPlayer p = new WAMPlayer(connection);
+        ArrayList<WAMPlayer> playerList;
+        synchronized (this) {
+            lobby.add(p);
+            //players who left while waiting do not count.
+            Iterator<WAMPlayer> it = lobby.iterator();
+            while (it.hasNext()) {
+                if (it.next().isClosed()) it.remove();
+            }
+            System.out.println("Player [" + lobby.size() + "/" + players + "] here!");
+            playerList = match();
+        }
+        if (playerList != null) {
+            startGame(playerList);
+        }
+    }
+
+    /**
+     * Take the players of a match out of the lobby, if there are enough of
+     * them and a game thread is free. Called holding the lock.
+     * @return the players of the match, null if no match can start
+     */
+    private ArrayList<WAMPlayer> match() {
+        if (lobby.size() < players) return null;
+        if (playing >= max_games) {
+            System.out.println("All " + max_games + " games running, the match waits for one to end.");
+            return null;
+        }
+        ArrayList<WAMPlayer> playerList = new ArrayList<>(players);
+        while (playerList.size() < players && !lobby.isEmpty()) {
+            WAMPlayer player = lobby.poll();
+            if (!player.isClosed()) playerList.add(player);
+        }
+        if (playerList.size() < players) {
+            //someone left since the lobby was last counted.
+            lobby.addAll(playerList);
+            return null;
+        }
+        playing++;
+        return playerList;
+    }
+
+    /**
+     * A game is over: its thread is free for the next match waiting in
+     * the lobby.
+     */
+    private void gameOver() {
+        ArrayList<WAMPlayer> playerList;
+        synchronized (this) {
+            playing--;
+            playerList = match();
+        }
+        if (playerList != null) {
+            startGame(playerList);
+        }
+    }
+
+    /**
+     * Welcome the players of a match and hand their game to the game pool.
+     * @param playerList the players of the match
+     */
+    private void startGame(ArrayList<WAMPlayer> playerList) {
+        WAMScores scores = initialize();
+        for (int i = 0; i < playerList.size(); i++) {
+            playerList.get(i).connect(scores, rows, cols, players, i);
+        }
+        int number;
+        long seed;
+        synchronized (this) {
+            number = gameCount.incrementAndGet();
+            seed = seeds.nextLong();
+        }
+        WAMGame.Settings settings = new WAMGame.Settings();
+        settings.moles = moles;
+        settings.score_interval = score_interval;
+        settings.tolerance = tolerance;
+        settings.seed = seed;
+        settings.clock = scheduler;
+        settings.metrics = metrics;
+        WAMGame game = new WAMGame(playerList, scores, rows, cols, game_time, settings);
+        metrics.gameStarted();
+        System.out.println("Game " + number + " starting with seed " + seed + ". " + metrics.getActiveGames() + " games running, "
+                + scheduler.getLiveTimers() + " mole timers live.");
+        try {
+            games.execute(() -> {
+                try {
+                    //the file is opened here, not on the thread that accepts
+                    //the players.
+                    if (log_dir != null) game.setLog(openLog(number, seed));
+                    game.run();
+                } finally {
+                    metrics.gameEnded();
+                    System.out.println("Game " + number + " over. " + metrics.getActiveGames() + " games running, "
+                            + scheduler.getLiveTimers() + " mole timers live.");
+                    gameOver();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            //the server is closing.
+            metrics.gameEnded();
+            synchronized (this) {
+                playing--;
+            }
+            for (WAMPlayer player : playerList) {
+                player.error("The server cannot start game " + number + ".");
+                player.close();
+            }
+        }
+    }
+
+    /**
+     * Create the log file of a game.
+     * @param number the number of the game
+     * @param seed the seed of the game
+     * @return the log, null if the file cannot be created
+     */
+    private WAMGameLog openLog(int number, long seed) {
+        try {
+            return WAMGameLog.create(log_dir.resolve("game-" + number + "-" + Long.toHexString(seed) + ".wamlog"));
+        } catch (IOException e) {
+            System.err.println("Game " + number + " is not logged: " + e);
+            return null;
         }
     }
 